@@ -0,0 +1,242 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * AdaptiveHuffman instances compress or decompress a stream of messages in a
+ * single pass, without a training corpus or a code table header, using the
+ * FGK adaptive Huffman algorithm: both sides start from an empty trie
+ * holding only the NYT ("not yet transmitted") leaf, and after every
+ * character both update the trie the same way, so codes always reflect the
+ * counts seen so far. A character seen for the first time is sent as the
+ * NYT code followed by its 16 raw bits.
+ * <p>
+ * The trie carries over from one message to the next, so an instance models
+ * one direction of one stream: messages must be decompressed, by a separate
+ * instance, in the order they were compressed.
+ */
+public class AdaptiveHuffman {
+
+    private static final int NONE = -1, NYT = -2;
+    private static final int COMPRESSING = 1, DECOMPRESSING = 2;
+
+    // Node i has order number -i: the root is node 0 and newer nodes have
+    // lower order; by the sibling property weights never increase with i
+    private int[] weight = new int[64];
+    private int[] parent = new int[64];
+    private int[] left = new int[64];
+    private int[] right = new int[64];
+    private int[] symbol = new int[64];
+    private int[] leafOf = new int[0];
+    private int[] path = new int[64];
+    private int nodes = 1;
+    private int nyt = 0;
+    private int mode;
+
+    /**
+     * Creates an AdaptiveHuffman instance at the start of a stream.
+     */
+    AdaptiveHuffman () {
+        parent[0] = left[0] = right[0] = NONE;
+        symbol[0] = NYT;
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the next message of the stream.
+     * @param message String representing the message to compress
+     * @return {@code byte[]} formatted as 3 components: (1) the number of
+     *         characters in the message as a varint, (2) the adaptive
+     *         Huffman coded bitstring, (3) possible 0-padding on the final byte
+     * @throws IllegalStateException if this instance decompresses its stream
+     */
+    public byte[] compress (String message) {
+        setMode(COMPRESSING);
+        BitWriter out = new BitWriter(Varint.MAX_SIZE + message.length());
+        byte[] length = new byte[Varint.MAX_SIZE];
+        for (int i = 0, end = Varint.write(message.length(), length, 0); i < end; i++) {
+            out.write(length[i] & 0xFF, 8);
+        }
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            int leaf = c < leafOf.length ? leafOf[c] : NONE;
+            if (leaf != NONE) {
+                writePath(leaf, out);
+            } else {
+                writePath(nyt, out);
+                out.write(c, 16);
+            }
+            update(c);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the code of the given node: the branches from the root to it.
+     */
+    private void writePath (int node, BitWriter out) {
+        int depth = 0;
+        for (int child = node; parent[child] != NONE; child = parent[child]) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, 2 * depth);
+            }
+            path[depth++] = right[parent[child]] == child ? 1 : 0;
+        }
+        long bits = 0;
+        int length = 0;
+        for (int i = depth - 1; i >= 0; i--) {
+            bits = (bits << 1) | path[i];
+            if (++length == BitWriter.MAX_WRITE) {
+                out.write(bits, length);
+                bits = length = 0;
+            }
+        }
+        out.write(bits, length);
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses the next message of the stream.
+     * @param compressedMsg {@code byte[]} formatted as described in compress
+     * @return Decompressed String representation of the message
+     * @throws IllegalStateException if this instance compresses its stream
+     * @throws IllegalArgumentException if the message length is malformed
+     */
+    public String decompress (byte[] compressedMsg) {
+        setMode(DECOMPRESSING);
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        long length = Varint.read(src);
+        // Only the very first character of a stream can take 0 trie bits
+        if (length > 8L * src.remaining() + 1 || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        char[] answer = new char[(int) length];
+        BitReader reader = new BitReader(compressedMsg, src.position(), compressedMsg.length);
+        for (int i = 0; i < answer.length; i++) {
+            int node = 0;
+            while (symbol[node] == NONE) {
+                node = reader.readBit() == 0 ? left[node] : right[node];
+            }
+            char c;
+            if (node == nyt) {
+                reader.refill();
+                c = (char) reader.peek(16);
+                reader.skip(16);
+            } else {
+                c = (char) symbol[node];
+            }
+            answer[i] = c;
+            update(c);
+        }
+        return new String(answer);
+    }
+
+    // -----------------------------------------------
+    // Adaptive Trie
+    // -----------------------------------------------
+
+    private void setMode (int mode) {
+        if (this.mode != 0 && this.mode != mode) {
+            throw new IllegalStateException("An AdaptiveHuffman instance either compresses or decompresses a stream, not both");
+        }
+        this.mode = mode;
+    }
+
+    /**
+     * [Mutator] Counts one more occurrence of c: if c is new, the NYT leaf
+     * is split into a new NYT leaf and a leaf for c; then, from c's leaf up
+     * to the root, each node is swapped with the highest-ordered node of
+     * equal weight (unless that is its parent) before its weight is
+     * incremented, which preserves the sibling property.
+     * @param c The character just coded
+     */
+    private void update (char c) {
+        int node = c < leafOf.length ? leafOf[c] : NONE;
+        if (node == NONE) {
+            node = split(c);
+        }
+        while (node != NONE) {
+            int leader = node;
+            while (leader > 0 && weight[leader - 1] == weight[node]) {
+                leader--;
+            }
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            weight[node]++;
+            node = parent[node];
+        }
+    }
+
+    /**
+     * [Mutator] Replaces the NYT leaf with an internal node whose left child
+     * is the new NYT leaf and whose right child is a new leaf for c.
+     * @param c The new character
+     * @return The new leaf of c, with weight 0
+     */
+    private int split (char c) {
+        if (nodes + 2 > weight.length) {
+            int capacity = 2 * weight.length;
+            weight = Arrays.copyOf(weight, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            symbol = Arrays.copyOf(symbol, capacity);
+        }
+        if (c >= leafOf.length) {
+            int oldLength = leafOf.length;
+            leafOf = Arrays.copyOf(leafOf, Math.min(Character.MAX_VALUE + 1, Math.max(2 * oldLength, c + 1)));
+            Arrays.fill(leafOf, oldLength, leafOf.length, NONE);
+        }
+        int leaf = nodes++, newNyt = nodes++;
+        int oldNyt = nyt;
+        symbol[oldNyt] = NONE;
+        left[oldNyt] = newNyt;
+        right[oldNyt] = leaf;
+        weight[leaf] = weight[newNyt] = 0;
+        parent[leaf] = parent[newNyt] = oldNyt;
+        left[leaf] = right[leaf] = left[newNyt] = right[newNyt] = NONE;
+        symbol[leaf] = c;
+        symbol[newNyt] = NYT;
+        leafOf[c] = leaf;
+        nyt = newNyt;
+        return leaf;
+    }
+
+    /**
+     * [Mutator] Exchanges the subtrees at positions a and b, which have equal
+     * weights and are not ancestors of one another; each position keeps its
+     * parent.
+     */
+    private void swap (int a, int b) {
+        int temp = symbol[a]; symbol[a] = symbol[b]; symbol[b] = temp;
+        temp = left[a]; left[a] = left[b]; left[b] = temp;
+        temp = right[a]; right[a] = right[b]; right[b] = temp;
+        temp = weight[a]; weight[a] = weight[b]; weight[b] = temp;
+        adopt(a);
+        adopt(b);
+    }
+
+    /**
+     * Points the links into the given position back at it after a swap.
+     */
+    private void adopt (int node) {
+        if (symbol[node] == NONE) {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        } else if (symbol[node] == NYT) {
+            nyt = node;
+        } else {
+            leafOf[symbol[node]] = node;
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a bitstring MSB-first from a byte array or ByteBuffer through a
+ * 64-bit window, so that up to 57 bits can be peeked at once without
+ * touching the input. Bits past the end of the input read as 0, matching the
+ * padding of the final byte written by BitWriter.
+ */
+final class BitReader {
+
+    /**
+     * Fewest bits guaranteed to be peekable after a call to refill.
+     */
+    static final int MAX_PEEK = 57;
+
+    private final byte[] buffer;
+    private final ByteBuffer source;
+    private final int start, end;
+    private int position;
+    private long window;
+    private int available;
+
+    /**
+     * Creates a BitReader over buffer[offset, end).
+     * @param buffer Source array holding the bitstring
+     * @param offset Index of the first byte to read
+     * @param end Index one past the last byte to read
+     */
+    BitReader (byte[] buffer, int offset, int end) {
+        this.buffer = buffer;
+        this.source = null;
+        this.start = this.position = offset;
+        this.end = end;
+    }
+
+    /**
+     * Creates a BitReader over the bytes between the buffer's position and
+     * limit, reading through the backing array when the buffer has one. The
+     * buffer's position is left untouched; see consumed.
+     * @param source Buffer holding the bitstring
+     */
+    BitReader (ByteBuffer source) {
+        if (source.hasArray()) {
+            this.buffer = source.array();
+            this.source = null;
+            this.start = this.position = source.arrayOffset() + source.position();
+            this.end = source.arrayOffset() + source.limit();
+        } else {
+            this.buffer = null;
+            this.source = source;
+            this.start = this.position = source.position();
+            this.end = source.limit();
+        }
+    }
+
+    /**
+     * Counts the bytes holding the bits consumed so far, including a
+     * partially consumed final byte, i.e., the offset from the start of the
+     * input at which byte-aligned data following the bitstring would begin.
+     * @return Number of bytes touched by the consumed bits
+     */
+    int consumed () {
+        int unread = Math.max(available, 0) / 8;
+        return position - unread - start;
+    }
+
+    /**
+     * @return true if more bits were consumed than the input holds, the
+     *         missing ones having been read as 0s
+     */
+    boolean overran () {
+        return available < 0;
+    }
+
+    /**
+     * Tops up the window with whole bytes until it holds at least MAX_PEEK
+     * bits or the input is exhausted.
+     */
+    void refill () {
+        while (available <= 56 && position < end) {
+            byte b = buffer != null ? buffer[position++] : source.get(position++);
+            window |= (b & 0xFFL) << (56 - available);
+            available += 8;
+        }
+    }
+
+    /**
+     * Returns the next length bits without consuming them. The caller must
+     * have refilled since at least length bits were last consumed.
+     * @param length Number of bits to peek, in [1, MAX_PEEK]
+     * @return The bits, right-aligned
+     */
+    int peek (int length) {
+        return (int) (window >>> (64 - length));
+    }
+
+    /**
+     * Consumes the given number of already peeked bits.
+     * @param length Number of bits to consume
+     */
+    void skip (int length) {
+        window <<= length;
+        available -= length;
+    }
+
+    /**
+     * Consumes and returns a single bit, refilling as needed.
+     * @return 0 or 1
+     */
+    int readBit () {
+        if (available <= 0) {
+            refill();
+        }
+        int bit = (int) (window >>> 63);
+        skip(1);
+        return bit;
+    }
+
+}
@@ -0,0 +1,123 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Packs variable-length codes MSB-first into a caller-provided byte array,
+ * into a ByteBuffer (e.g., a direct buffer) at its position, or, when the
+ * output size is not known in advance, into an array of its own that grows
+ * as needed.
+ * Pending bits are kept right-aligned in a 64-bit accumulator and flushed
+ * one whole byte at a time, so writing a code never allocates.
+ */
+final class BitWriter {
+
+    /**
+     * Longest code that may be written in a single call: the accumulator
+     * holds at most 7 unflushed bits between calls, leaving 57 free.
+     */
+    static final int MAX_WRITE = 57;
+
+    private byte[] buffer;
+    private final ByteBuffer target;
+    private final boolean growable;
+    private int position;
+    private long accumulator;
+    private int pending;
+
+    /**
+     * Creates a BitWriter that fills the given buffer starting at offset.
+     * @param buffer Destination array, sized by the caller to hold every
+     *        byte that will be written
+     * @param offset Index of the first byte to write
+     */
+    BitWriter (byte[] buffer, int offset) {
+        this.buffer = buffer;
+        this.target = null;
+        this.growable = false;
+        this.position = offset;
+    }
+
+    /**
+     * Creates a BitWriter filling an array of its own, doubled whenever it
+     * runs out of room; see toByteArray.
+     * @param capacity Initial size of the array, in bytes
+     */
+    BitWriter (int capacity) {
+        this.buffer = new byte[Math.max(capacity, 16)];
+        this.target = null;
+        this.growable = true;
+    }
+
+    /**
+     * Creates a BitWriter that fills the given buffer from its position,
+     * writing through the backing array when the buffer has one.
+     * @param target Destination buffer, with room for every byte that will
+     *        be written; its position is advanced by finish
+     */
+    BitWriter (ByteBuffer target) {
+        if (target.hasArray() && !target.isReadOnly()) {
+            this.buffer = target.array();
+            this.position = target.arrayOffset() + target.position();
+        } else {
+            this.buffer = null;
+            this.position = target.position();
+        }
+        this.target = target;
+        this.growable = false;
+    }
+
+    /**
+     * Appends the lowest length bits of the given code, most significant first.
+     * @param bits Right-aligned code bits; bits above length must be 0
+     * @param length Number of bits to write, in [0, MAX_WRITE]
+     */
+    void write (long bits, int length) {
+        accumulator = (accumulator << length) | bits;
+        pending += length;
+        while (pending >= 8) {
+            pending -= 8;
+            put((byte) (accumulator >>> pending));
+        }
+    }
+
+    /**
+     * Flushes any partial final byte, 0-padding its unused low bits, and
+     * moves a ByteBuffer target's position past the written bytes.
+     * @return Index (in the array or the buffer) one past the last byte written
+     */
+    int finish () {
+        if (pending > 0) {
+            put((byte) (accumulator << (8 - pending)));
+            pending = 0;
+        }
+        if (target == null) {
+            return position;
+        }
+        if (buffer != null) {
+            target.position(position - target.arrayOffset());
+        }
+        return target.position();
+    }
+
+    /**
+     * Finishes the output of a growable BitWriter.
+     * @return Copy of the bytes written, trimmed to size
+     */
+    byte[] toByteArray () {
+        return Arrays.copyOf(buffer, finish());
+    }
+
+    private void put (byte b) {
+        if (buffer != null) {
+            if (growable && position == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            buffer[position++] = b;
+        } else {
+            target.put(b);
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compresses large messages as independent, fixed-size blocks sharing one
+ * Huffman code, so that blocks can be encoded and decoded concurrently and
+ * any block can be decoded without touching the others. A container is
+ * formatted as 4 components: (1) the number of characters in the message
+ * as a varint, (2) the block size in characters as a varint, (3) an index
+ * holding, for each block, the 4-byte big-endian offset one past its last
+ * byte (relative to the start of the data), and (4) the data: each block's
+ * 0-padded bitstring, back to back. A block that coding would not shrink
+ * enough (see Huffman.storesRaw) is stored as raw big-endian UTF-16 chars
+ * instead, which the decoder recognizes by its size of exactly 2 bytes per
+ * character: coded blocks are always smaller.
+ */
+public class BlockContainer {
+
+    /**
+     * Block size, in characters, used when none is given.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    private final Huffman codec;
+    private final int blockSize;
+
+    /**
+     * Creates a BlockContainer using DEFAULT_BLOCK_SIZE character blocks.
+     * @param codec Huffman codes to compress / decompress with
+     */
+    BlockContainer (Huffman codec) {
+        this(codec, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a BlockContainer using the given block size.
+     * @param codec Huffman codes to compress / decompress with
+     * @param blockSize Number of characters per block (the last may be shorter)
+     */
+    BlockContainer (Huffman codec, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.codec = codec;
+        this.blockSize = blockSize;
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given message on the common ForkJoinPool.
+     * @param message String to compress
+     * @return {@code byte[]} container, formatted as described above
+     */
+    public byte[] compress (String message) {
+        return compress(message, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compresses the given message, measuring and then encoding its blocks
+     * concurrently on the given pool. Blocks are encoded straight into their
+     * final place in the container.
+     * @param message String to compress
+     * @param pool Pool to encode blocks on
+     * @return {@code byte[]} container, formatted as described above
+     * @throws IllegalArgumentException if the message contains a character
+     *         that did not appear in the codec's corpus
+     */
+    public byte[] compress (String message, ForkJoinPool pool) {
+        int blocks = (int) (((long) message.length() + blockSize - 1) / blockSize);
+        long[] ends = new long[blocks];
+        pool.invoke(new MeasureTask(message, ends, 0, blocks));
+        long dataSize = 0;
+        for (int i = 0; i < blocks; i++) {
+            dataSize += ends[i];
+            ends[i] = dataSize;
+        }
+        int headerSize = Varint.size(message.length()) + Varint.size(blockSize);
+        int dataStart = headerSize + 4 * blocks;
+        if (dataStart + dataSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Container would exceed the maximum array size");
+        }
+        ByteBuffer container = ByteBuffer.allocate(dataStart + (int) dataSize);
+        Varint.write(message.length(), container);
+        Varint.write(blockSize, container);
+        for (int i = 0; i < blocks; i++) {
+            container.putInt((int) ends[i]);
+        }
+        pool.invoke(new EncodeTask(message, container.array(), dataStart, ends, 0, blocks));
+        return container.array();
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses a whole container on the common ForkJoinPool.
+     * @param container {@code byte[]} written by compress
+     * @return The original message
+     */
+    public String decompress (byte[] container) {
+        return decompress(container, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decompresses a whole container, decoding its blocks concurrently on
+     * the given pool.
+     * @param container {@code byte[]} written by compress
+     * @param pool Pool to decode blocks on
+     * @return The original message
+     */
+    public String decompress (byte[] container, ForkJoinPool pool) {
+        Index index = new Index(container);
+        char[] answer = new char[index.length];
+        pool.invoke(new DecodeTask(index, answer, 0, index.blocks));
+        return new String(answer);
+    }
+
+    /**
+     * Decompresses a single block of a container.
+     * @param container {@code byte[]} written by compress
+     * @param block Index of the block, in [0, blockCount(container))
+     * @return The characters of that block
+     */
+    public String decompressBlock (byte[] container, int block) {
+        Index index = new Index(container);
+        index.checkBlock(block);
+        char[] answer = new char[index.blockLength(block)];
+        index.decodeBlock(block, answer, 0);
+        return new String(answer);
+    }
+
+    /**
+     * Decompresses the characters [from, to) of the original message,
+     * decoding only the blocks that overlap that range.
+     * @param container {@code byte[]} written by compress
+     * @param from Index of the first character to return
+     * @param to Index one past the last character to return
+     * @return The substring [from, to) of the original message
+     */
+    public String decompress (byte[] container, int from, int to) {
+        Index index = new Index(container);
+        if (from < 0 || to > index.length || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") outside message of length " + index.length);
+        }
+        if (from == to) {
+            return "";
+        }
+        int first = from / index.blockSize, last = (to - 1) / index.blockSize;
+        int start = first * index.blockSize;
+        int end = (int) Math.min(index.length, (long) (last + 1) * index.blockSize);
+        char[] answer = new char[end - start];
+        for (int block = first; block <= last; block++) {
+            index.decodeBlock(block, answer, (block - first) * index.blockSize);
+        }
+        return new String(answer, from - start, to - from);
+    }
+
+    /**
+     * @param container {@code byte[]} written by compress
+     * @return Number of blocks in the container
+     */
+    public int blockCount (byte[] container) {
+        return new Index(container).blocks;
+    }
+
+    // -----------------------------------------------
+    // Container Index
+    // -----------------------------------------------
+
+    /**
+     * Parsed header of a container, locating each block's bitstring.
+     */
+    private class Index {
+
+        final byte[] container;
+        final int length, blockSize, blocks, indexStart, dataStart;
+
+        Index (byte[] container) {
+            ByteBuffer src = ByteBuffer.wrap(container);
+            long length = Varint.read(src);
+            long blockSize = Varint.read(src);
+            if (length > Integer.MAX_VALUE || blockSize == 0 || blockSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Malformed block container");
+            }
+            this.container = container;
+            this.length = (int) length;
+            this.blockSize = (int) blockSize;
+            this.blocks = (int) ((length + blockSize - 1) / blockSize);
+            this.indexStart = src.position();
+            this.dataStart = indexStart + 4 * blocks;
+            // Every character takes at least a bit, bounding honest lengths
+            if (dataStart > container.length || end(blocks - 1) > container.length
+                    || length > 8L * (container.length - dataStart)) {
+                throw new IllegalArgumentException("Malformed block container");
+            }
+        }
+
+        void checkBlock (int block) {
+            if (block < 0 || block >= blocks) {
+                throw new IndexOutOfBoundsException("Block " + block + " outside container of " + blocks + " blocks");
+            }
+        }
+
+        int blockLength (int block) {
+            return block == blocks - 1 ? length - block * blockSize : blockSize;
+        }
+
+        /**
+         * @return Absolute index one past the last byte of the given block
+         */
+        long end (int block) {
+            if (block < 0) {
+                return dataStart;
+            }
+            int i = indexStart + 4 * block;
+            return dataStart + ((((container[i] & 0xFF) << 24) | ((container[i + 1] & 0xFF) << 16)
+                    | ((container[i + 2] & 0xFF) << 8) | (container[i + 3] & 0xFF)) & 0xFFFFFFFFL);
+        }
+
+        void decodeBlock (int block, char[] dst, int dstOffset) {
+            // Only the last offset is checked by the constructor; the others
+            // are checked as their blocks are decoded
+            long startOffset = end(block - 1), endOffset = end(block);
+            if (startOffset > endOffset || endOffset > container.length
+                    || blockLength(block) > 8 * (endOffset - startOffset)) {
+                throw new IllegalArgumentException("Malformed block container");
+            }
+            int start = (int) startOffset, end = (int) endOffset;
+            if (end - start == 2L * blockLength(block)) {
+                Huffman.readRaw(container, start, dst, dstOffset, blockLength(block));
+            } else {
+                codec.decode(container, start, end, dst, dstOffset, blockLength(block));
+            }
+        }
+
+    }
+
+    // -----------------------------------------------
+    // Parallel Tasks
+    // -----------------------------------------------
+
+    /**
+     * Computes the compressed size in bytes of blocks [from, to).
+     */
+    private class MeasureTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String message;
+        private final long[] sizes;
+        private final int from, to;
+
+        MeasureTask (String message, long[] sizes, int from, int to) {
+            this.message = message;
+            this.sizes = sizes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MeasureTask(message, sizes, from, middle), new MeasureTask(message, sizes, middle, to));
+                return;
+            }
+            for (int block = from; block < to; block++) {
+                int start = block * blockSize, end = Math.min(message.length(), start + blockSize);
+                long size = (codec.encodedBits(message.subSequence(start, end)) + 7) >>> 3;
+                sizes[block] = Huffman.storesRaw(size, end - start) ? 2L * (end - start) : size;
+            }
+        }
+
+    }
+
+    /**
+     * Encodes blocks [from, to) into their place in the container.
+     */
+    private class EncodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String message;
+        private final byte[] container;
+        private final int dataStart;
+        private final long[] ends;
+        private final int from, to;
+
+        EncodeTask (String message, byte[] container, int dataStart, long[] ends, int from, int to) {
+            this.message = message;
+            this.container = container;
+            this.dataStart = dataStart;
+            this.ends = ends;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EncodeTask(message, container, dataStart, ends, from, middle),
+                          new EncodeTask(message, container, dataStart, ends, middle, to));
+                return;
+            }
+            for (int block = from; block < to; block++) {
+                int start = block * blockSize, end = Math.min(message.length(), start + blockSize);
+                int offset = dataStart + (block == 0 ? 0 : (int) ends[block - 1]);
+                if (ends[block] - (block == 0 ? 0 : ends[block - 1]) == 2L * (end - start)) {
+                    Huffman.writeRaw(message.subSequence(start, end), container, offset);
+                } else {
+                    codec.encode(message.subSequence(start, end), container, offset);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Decodes blocks [from, to) into their place in the message.
+     */
+    private class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Index index;
+        private final char[] dst;
+        private final int from, to;
+
+        DecodeTask (Index index, char[] dst, int from, int to) {
+            this.index = index;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeTask(index, dst, from, middle), new DecodeTask(index, dst, middle, to));
+                return;
+            }
+            for (int block = from; block < to; block++) {
+                index.decodeBlock(block, dst, block * index.blockSize);
+            }
+        }
+
+    }
+
+}
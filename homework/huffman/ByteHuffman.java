@@ -0,0 +1,244 @@
+package huffman;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * ByteHuffman instances provide reusable Huffman codes for compressing and
+ * decompressing binary data (serialized messages, images, text that is
+ * already UTF-8, ...) over the fixed alphabet of 256 byte values, without
+ * converting anything to characters. Codes are canonical and limited to
+ * DecodeTable.SINGLE_LOOKUP_BITS bits, so every byte decodes with a single
+ * table lookup and the codes can be shipped as a header.
+ */
+public class ByteHuffman {
+
+    private static final int ALPHABET = 256;
+
+    private final CodeTable encodingTable;
+    private final DecodeTable decodingTable;
+
+    /**
+     * Creates the Huffman codes using the byte distribution of the given
+     * corpus.
+     * @param corpus Bytes with a distribution comparable to later messages
+     */
+    ByteHuffman (byte[] corpus) {
+        this(ByteBuffer.wrap(corpus));
+    }
+
+    /**
+     * Creates the Huffman codes using the byte distribution of the bytes
+     * between the corpus buffer's position and limit, which are left as is.
+     * @param corpus Bytes with a distribution comparable to later messages
+     */
+    ByteHuffman (ByteBuffer corpus) {
+        this(CodeTable.canonical(CodeLengths.limited(count(corpus), DecodeTable.SINGLE_LOOKUP_BITS)));
+    }
+
+    private ByteHuffman (CodeTable canonicalTable) {
+        encodingTable = canonicalTable;
+        decodingTable = new DecodeTable(canonicalTable, FlatTrie.of(canonicalTable));
+    }
+
+    /**
+     * Counts the bytes between the buffer's position and limit.
+     * @param corpus Bytes to count
+     * @return Count of each byte value, indexed by unsigned value
+     */
+    private static int[] count (ByteBuffer corpus) {
+        int[] counts = new int[ALPHABET];
+        for (int i = corpus.position(); i < corpus.limit(); i++) {
+            counts[corpus.get(i) & 0xFF]++;
+        }
+        return counts;
+    }
+
+    // -----------------------------------------------
+    // Header
+    // -----------------------------------------------
+
+    /**
+     * Serializes this instance's codes, formatted as Huffman.header.
+     * @return {@code byte[]} header read by fromHeader
+     */
+    public byte[] header () {
+        return encodingTable.header();
+    }
+
+    /**
+     * Creates the ByteHuffman instance described by a header.
+     * @param header {@code byte[]} written by header()
+     * @return ByteHuffman instance using the header's canonical codes
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    public static ByteHuffman fromHeader (byte[] header) {
+        CodeTable table = CodeTable.readHeader(ByteBuffer.wrap(header));
+        if (table.size() > ALPHABET || table.escape() >= 0) {
+            throw new IllegalArgumentException("Header codes symbols outside the byte alphabet");
+        }
+        return new ByteHuffman(table);
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given bytes.
+     * @param message Bytes to compress
+     * @return {@code byte[]} formatted as 3 components: (1) the number of
+     *         bytes in the message as a varint, (2) the bitstring containing
+     *         the message itself, (3) possible 0-padding on the final byte
+     * @throws IllegalArgumentException if the message contains a byte value
+     *         that did not appear in the corpus
+     */
+    public byte[] compress (byte[] message) {
+        ByteBuffer src = ByteBuffer.wrap(message);
+        byte[] answer = new byte[compressedSize(src)];
+        compress(src, ByteBuffer.wrap(answer));
+        return answer;
+    }
+
+    /**
+     * Compresses the bytes between src's position and limit into dst at its
+     * position, formatted as compress(byte[]). Works with direct buffers on
+     * either side; nothing is copied through intermediate arrays.
+     * @param src Bytes to compress; its position is moved to its limit
+     * @param dst Destination buffer; its position is moved past the output
+     * @return Number of bytes written to dst
+     * @throws BufferOverflowException if dst has fewer than
+     *         compressedSize(src) bytes remaining, in which case neither
+     *         buffer is modified
+     * @throws IllegalArgumentException if src contains a byte value that did
+     *         not appear in the corpus
+     */
+    public int compress (ByteBuffer src, ByteBuffer dst) {
+        int size = compressedSize(src);
+        if (dst.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+        Varint.write(src.remaining(), dst);
+        BitWriter writer = new BitWriter(dst);
+        for (int i = src.position(); i < src.limit(); i++) {
+            int symbol = src.get(i) & 0xFF;
+            writer.write(encodingTable.code(symbol), encodingTable.length(symbol));
+        }
+        writer.finish();
+        src.position(src.limit());
+        return size;
+    }
+
+    /**
+     * Computes the exact number of bytes compress will write for the bytes
+     * between src's position and limit.
+     * @param src Bytes to measure; the buffer is not modified
+     * @return Size of the compressed output in bytes
+     * @throws IllegalArgumentException if src contains a byte value that did
+     *         not appear in the corpus
+     */
+    public int compressedSize (ByteBuffer src) {
+        long bits = 0;
+        for (int i = src.position(); i < src.limit(); i++) {
+            int length = encodingTable.length(src.get(i) & 0xFF);
+            if (length == 0) {
+                throw new IllegalArgumentException("Byte " + (src.get(i) & 0xFF) + " does not appear in the corpus");
+            }
+            bits += length;
+        }
+        long size = Varint.size(src.remaining()) + ((bits + 7) >>> 3);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+        }
+        return (int) size;
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses bytes written by compress.
+     * @param compressedMsg {@code byte[]} formatted as described in compress
+     * @return The original bytes
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    public byte[] decompress (byte[] compressedMsg) {
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        byte[] answer = new byte[readLength(src)];
+        decode(src, ByteBuffer.wrap(answer), answer.length);
+        return answer;
+    }
+
+    /**
+     * Decompresses one message written by compress from src at its position
+     * into dst at its position.
+     * @param src Compressed input; its position is moved past the message
+     * @param dst Destination buffer; its position is moved past the output
+     * @return Number of bytes written to dst
+     * @throws BufferOverflowException if the decompressed message does not
+     *         fit in dst, in which case neither buffer's position is moved
+     * @throws IllegalArgumentException if the input is malformed, in which
+     *         case neither buffer's position is moved either
+     */
+    public int decompress (ByteBuffer src, ByteBuffer dst) {
+        int start = src.position(), dstStart = dst.position();
+        try {
+            int length = readLength(src);
+            if (dst.remaining() < length) {
+                throw new BufferOverflowException();
+            }
+            decode(src, dst, length);
+            return length;
+        } catch (RuntimeException e) {
+            src.position(start);
+            dst.position(dstStart);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and validates the varint message length at src's position.
+     */
+    private int readLength (ByteBuffer src) {
+        long length;
+        try {
+            length = Varint.read(src);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Compressed message is truncated");
+        }
+        // Every code is at least 1 bit long, bounding the honest lengths
+        if (length > 8L * src.remaining() || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Decodes count bytes from the bitstring at src's position into dst,
+     * moving src past the bitstring.
+     * @throws IllegalArgumentException if the bitstring ends before count
+     *         bytes are decoded
+     */
+    private void decode (ByteBuffer src, ByteBuffer dst, int count) {
+        BitReader reader = new BitReader(src);
+        if (dst.hasArray()) {
+            byte[] array = dst.array();
+            int offset = dst.arrayOffset() + dst.position();
+            for (int i = 0; i < count; i++) {
+                array[offset + i] = (byte) decodingTable.next(reader);
+            }
+            dst.position(dst.position() + count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                dst.put((byte) decodingTable.next(reader));
+            }
+        }
+        if (reader.overran()) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        src.position(src.position() + reader.consumed());
+    }
+
+}
@@ -0,0 +1,206 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * Computes Huffman code lengths directly from symbol frequencies, for use
+ * with canonical codes, which need nothing but the lengths.
+ */
+final class CodeLengths {
+
+    private CodeLengths () {}
+
+    /**
+     * Computes code lengths no longer than maxLength: the unrestricted
+     * Huffman lengths when they already fit, which is the common case and
+     * takes linear time after sorting, and package-merge otherwise.
+     * @param frequencies Frequency of each symbol, indexed by symbol;
+     *        symbols with frequency 0 get no code
+     * @param maxLength Longest code allowed, in [1, BitWriter.MAX_WRITE]
+     * @return Code length of each symbol, indexed by symbol and trimmed to
+     *         the largest symbol with a code
+     * @throws IllegalArgumentException if the symbols cannot be coded in
+     *         maxLength bits
+     */
+    static byte[] limited (int[] frequencies, int maxLength) {
+        if (maxLength < 1 || maxLength > BitWriter.MAX_WRITE) {
+            throw new IllegalArgumentException("Maximum code length must be in [1, " + BitWriter.MAX_WRITE + "]");
+        }
+        byte[] lengths = huffman(frequencies);
+        for (byte length : lengths) {
+            if (length > maxLength) {
+                return packageMerge(frequencies, maxLength);
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Computes optimal (unrestricted) Huffman code lengths without building
+     * a trie, using the in-place algorithm of Moffat and Katajainen: the
+     * frequencies, sorted once into a primitive array, are merged with the
+     * two-queue method, the array holding the unmerged leaves ahead of the
+     * internal nodes built so far; parent pointers are then turned into
+     * depths and the depths into leaf lengths. Linear time after the sort.
+     * @param frequencies Frequency of each symbol, indexed by symbol;
+     *        symbols with frequency 0 get no code
+     * @return Code length of each symbol, indexed by symbol and trimmed to
+     *         the largest symbol with a code; int frequencies never need
+     *         more than 45 bits
+     */
+    static byte[] huffman (int[] frequencies) {
+        int[] symbols = sortedSymbols(frequencies);
+        int n = symbols.length;
+        byte[] lengths = new byte[n == 0 ? 0 : max(symbols) + 1];
+        if (n <= 1) {
+            if (n == 1) {
+                lengths[symbols[0]] = 1;
+            }
+            return lengths;
+        }
+        long[] a = new long[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = frequencies[symbols[i]];
+        }
+        // Merge: a[0, next) holds internal nodes, a[root] the lightest
+        // unmerged one; a merged node's slot becomes its parent's index
+        a[0] += a[1];
+        int root = 0, leaf = 2;
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+            if (leaf >= n || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+        // Parent indices to internal node depths
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--) {
+            a[next] = a[(int) a[next]] + 1;
+        }
+        // Internal node depths to leaf depths, the heaviest leaves last
+        int available = 1, used = 0, depth = 0, next = n - 1;
+        root = n - 2;
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                a[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            lengths[symbols[i]] = (byte) a[i];
+        }
+        return lengths;
+    }
+
+    /**
+     * Computes optimal code lengths no longer than maxLength using the
+     * package-merge algorithm: for each length from maxLength up to 1, the
+     * leaves are merged (by weight) with the pairwise packages of the next
+     * longer level's list, and the 2n - 2 cheapest items of the final list
+     * determine how many levels each leaf takes part in, i.e., its length.
+     * @param frequencies Frequency of each symbol, indexed by symbol;
+     *        symbols with frequency 0 get no code
+     * @param maxLength Longest code allowed, in [1, BitWriter.MAX_WRITE]
+     * @return Code length of each symbol, indexed by symbol and trimmed to
+     *         the largest symbol with a code
+     * @throws IllegalArgumentException if the symbols cannot be coded in
+     *         maxLength bits
+     */
+    static byte[] packageMerge (int[] frequencies, int maxLength) {
+        if (maxLength < 1 || maxLength > BitWriter.MAX_WRITE) {
+            throw new IllegalArgumentException("Maximum code length must be in [1, " + BitWriter.MAX_WRITE + "]");
+        }
+        int[] symbols = sortedSymbols(frequencies);
+        int n = symbols.length;
+        byte[] lengths = new byte[n == 0 ? 0 : max(symbols) + 1];
+        if (n <= 1) {
+            if (n == 1) {
+                lengths[symbols[0]] = 1;
+            }
+            return lengths;
+        }
+        if (maxLength < 31 && n > 1 << maxLength) {
+            throw new IllegalArgumentException(n + " symbols cannot be coded in " + maxLength + " bits");
+        }
+        // isLeaf[level][i]: whether item i of that level's merged list is a leaf
+        boolean[][] isLeaf = new boolean[maxLength + 1][];
+        long[] previous = new long[0];
+        for (int level = maxLength; level >= 1; level--) {
+            int packages = previous.length / 2;
+            long[] merged = new long[n + packages];
+            boolean[] leaves = new boolean[n + packages];
+            int leaf = 0, pack = 0;
+            for (int i = 0; i < merged.length; i++) {
+                long packageWeight = pack < packages ? previous[2 * pack] + previous[2 * pack + 1] : Long.MAX_VALUE;
+                if (leaf < n && frequencies[symbols[leaf]] <= packageWeight) {
+                    merged[i] = frequencies[symbols[leaf++]];
+                    leaves[i] = true;
+                } else {
+                    merged[i] = packageWeight;
+                    pack++;
+                }
+            }
+            isLeaf[level] = leaves;
+            previous = merged;
+        }
+        int take = 2 * n - 2;
+        for (int level = 1; level <= maxLength && take > 0; level++) {
+            int leaves = 0;
+            for (int i = 0; i < take; i++) {
+                if (isLeaf[level][i]) {
+                    leaves++;
+                }
+            }
+            for (int i = 0; i < leaves; i++) {
+                lengths[symbols[i]]++;
+            }
+            take = 2 * (take - leaves);
+        }
+        return lengths;
+    }
+
+    /**
+     * @param frequencies Frequency of each symbol, indexed by symbol
+     * @return The symbols with a nonzero frequency, by ascending frequency
+     *         and then ascending symbol
+     */
+    static int[] sortedSymbols (int[] frequencies) {
+        long[] keys = new long[frequencies.length];
+        int n = 0;
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] > 0) {
+                keys[n++] = ((long) frequencies[symbol] << 32) | symbol;
+            }
+        }
+        Arrays.sort(keys, 0, n);
+        int[] symbols = new int[n];
+        for (int i = 0; i < n; i++) {
+            symbols[i] = (int) keys[i];
+        }
+        return symbols;
+    }
+
+    private static int max (int[] values) {
+        int max = 0;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,333 @@
+package huffman;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding table mapping each symbol to its Huffman code, kept as a pair of
+ * primitive arrays indexed by symbol: the right-aligned code bits and the
+ * code length. A length of 0 marks a symbol that has no code.
+ * <p>
+ * A table may reserve its last symbol as an escape: characters without a
+ * code of their own are then written as the escape code followed by the
+ * character's 16 raw bits.
+ */
+final class CodeTable {
+
+    /**
+     * Symbol standing for the escape in headers, past every character.
+     */
+    static final int ESCAPE_SYMBOL = Character.MAX_VALUE + 1;
+
+    /**
+     * Number of raw bits following the escape code.
+     */
+    static final int LITERAL_BITS = 16;
+
+    private final long[] codes;
+    private final byte[] lengths;
+    private final int maxLength;
+    private final int escape;
+
+    /**
+     * Creates a CodeTable from parallel code / length arrays indexed by symbol.
+     * @param codes Right-aligned code bits for each symbol
+     * @param lengths Code length for each symbol, 0 if the symbol is absent,
+     *        never more than BitWriter.MAX_WRITE
+     */
+    CodeTable (long[] codes, byte[] lengths) {
+        this(codes, lengths, false);
+    }
+
+    /**
+     * Creates a CodeTable from parallel code / length arrays indexed by
+     * symbol, optionally reserving the last symbol as the escape.
+     * @param codes Right-aligned code bits for each symbol
+     * @param lengths Code length for each symbol, 0 if the symbol is absent,
+     *        never more than BitWriter.MAX_WRITE
+     * @param escaped Whether the last symbol is the escape, which must
+     *        then have a code
+     */
+    CodeTable (long[] codes, byte[] lengths, boolean escaped) {
+        this.codes = codes;
+        this.lengths = lengths;
+        this.escape = escaped ? lengths.length - 1 : -1;
+        int maxLength = 0;
+        for (byte length : lengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Creates the canonical code for the given code lengths: symbols are
+     * ordered by (length, symbol) and assigned consecutive codes, so the
+     * lengths alone determine every code.
+     * @param lengths Code length for each symbol, 0 if the symbol is absent
+     * @return The canonical CodeTable
+     * @throws IllegalArgumentException if the lengths exceed BitWriter.MAX_WRITE
+     *         or cannot form a prefix code
+     */
+    static CodeTable canonical (byte[] lengths) {
+        return canonical(lengths, false);
+    }
+
+    /**
+     * Creates the canonical code for the given code lengths as in
+     * canonical(byte[]), optionally reserving the last symbol as the escape.
+     * @param lengths Code length for each symbol, 0 if the symbol is absent
+     * @param escaped Whether the last symbol is the escape
+     * @return The canonical CodeTable
+     * @throws IllegalArgumentException if the lengths exceed BitWriter.MAX_WRITE
+     *         or cannot form a prefix code
+     */
+    static CodeTable canonical (byte[] lengths, boolean escaped) {
+        int[] counts = new int[BitWriter.MAX_WRITE + 1];
+        long kraft = 0;
+        for (byte length : lengths) {
+            if (length < 0 || length > BitWriter.MAX_WRITE) {
+                throw new IllegalArgumentException("Invalid code length " + length);
+            }
+            if (length > 0) {
+                counts[length]++;
+                kraft += 1L << (BitWriter.MAX_WRITE - length);
+            }
+        }
+        if (kraft > 1L << BitWriter.MAX_WRITE) {
+            throw new IllegalArgumentException("Code lengths do not form a prefix code");
+        }
+        long[] next = new long[BitWriter.MAX_WRITE + 1];
+        long code = 0;
+        for (int length = 1; length <= BitWriter.MAX_WRITE; length++) {
+            code = (code + counts[length - 1]) << 1;
+            next[length] = code;
+        }
+        long[] codes = new long[lengths.length];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] > 0) {
+                codes[symbol] = next[lengths[symbol]]++;
+            }
+        }
+        return new CodeTable(codes, lengths.clone(), escaped);
+    }
+    
+    /**
+     * @return The canonical CodeTable with the same code lengths (and
+     *         escape) as this one
+     */
+    CodeTable canonical () {
+        return canonical(lengths, escape >= 0);
+    }
+    
+    /**
+     * Serializes the code lengths of this table as a header from which
+     * readHeader rebuilds its canonical code. Formatted as a varint count of
+     * coded symbols followed by, in ascending symbol order, the varint gap
+     * from the previous symbol and a single byte holding the code length.
+     * The escape, if any, is written last as symbol ESCAPE_SYMBOL.
+     * @return The serialized header
+     */
+    byte[] header () {
+        int count = 0, size = 0, previous = 0;
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] > 0) {
+                int written = symbol == escape ? ESCAPE_SYMBOL : symbol;
+                count++;
+                size += Varint.size(written - previous) + 1;
+                previous = written;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(Varint.size(count) + size);
+        Varint.write(count, header);
+        previous = 0;
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] > 0) {
+                int written = symbol == escape ? ESCAPE_SYMBOL : symbol;
+                Varint.write(written - previous, header);
+                header.put(lengths[symbol]);
+                previous = written;
+            }
+        }
+        return header.array();
+    }
+    
+    /**
+     * Reads a header written by header() from the buffer's position,
+     * advancing it past the header.
+     * @param src Buffer holding the header
+     * @return The canonical CodeTable described by the header
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    static CodeTable readHeader (ByteBuffer src) {
+        try {
+            long count = Varint.read(src);
+            if (count > ESCAPE_SYMBOL + 1) {
+                throw new IllegalArgumentException("Malformed Huffman header");
+            }
+            int[] symbols = new int[(int) count];
+            byte[] symbolLengths = new byte[(int) count];
+            int symbol = 0;
+            for (int i = 0; i < count; i++) {
+                // Gaps are checked before they are added so that no sum can wrap
+                long gap = Varint.read(src);
+                if (gap > ESCAPE_SYMBOL - symbol || (i > 0 && gap == 0)) {
+                    throw new IllegalArgumentException("Malformed Huffman header");
+                }
+                symbol += (int) gap;
+                symbols[i] = symbol;
+                symbolLengths[i] = src.get();
+            }
+            boolean escaped = count > 0 && symbols[(int) count - 1] == ESCAPE_SYMBOL;
+            if (escaped) {
+                // The escape takes the symbol after the last character
+                symbols[(int) count - 1] = count > 1 ? symbols[(int) count - 2] + 1 : 0;
+            }
+            byte[] lengths = new byte[count == 0 ? 0 : symbols[(int) count - 1] + 1];
+            for (int i = 0; i < count; i++) {
+                lengths[symbols[i]] = symbolLengths[i];
+            }
+            return canonical(lengths, escaped);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated Huffman header");
+        }
+    }
+
+    /**
+     * @return One past the largest symbol this table can hold
+     */
+    int size () {
+        return lengths.length;
+    }
+
+    /**
+     * @return Length of the longest code in the table, 0 if it is empty
+     */
+    int maxLength () {
+        return maxLength;
+    }
+
+    /**
+     * @return Most bits written for any single character: the longest code,
+     *         or the escape code plus LITERAL_BITS if that is longer
+     */
+    int maxCharacterBits () {
+        return escape >= 0 ? Math.max(maxLength, lengths[escape] + LITERAL_BITS) : maxLength;
+    }
+
+    /**
+     * @return The escape symbol, or -1 if this table has none
+     */
+    int escape () {
+        return escape;
+    }
+
+    /**
+     * @param symbol The symbol to look up
+     * @return Length of the symbol's code, or 0 if it has none
+     */
+    int length (int symbol) {
+        return symbol < lengths.length ? lengths[symbol] : 0;
+    }
+
+    /**
+     * @param symbol The symbol to look up
+     * @return Right-aligned bits of the symbol's code
+     */
+    long code (int symbol) {
+        return codes[symbol];
+    }
+
+    /**
+     * @param c The character to look up
+     * @return Number of bits written for c: the length of its code, or of
+     *         the escape code plus LITERAL_BITS if it has none, or 0 if it
+     *         cannot be coded at all
+     */
+    int characterBits (char c) {
+        if (c != escape && c < lengths.length && lengths[c] != 0) {
+            return lengths[c];
+        }
+        return escape >= 0 ? lengths[escape] + LITERAL_BITS : 0;
+    }
+
+    /**
+     * Sums the code lengths of every character in the given message, which is
+     * exactly the number of bits encode will produce for it.
+     * @param message The characters to be encoded
+     * @return Total encoded length in bits
+     * @throws IllegalArgumentException if a character has no code and the
+     *         table has no escape
+     */
+    long encodedBits (CharSequence message) {
+        long bits = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            int length = characterBits(c);
+            if (length == 0) {
+                throw new IllegalArgumentException("Character '" + c + "' does not appear in the corpus");
+            }
+            bits += length;
+        }
+        return bits;
+    }
+
+    /**
+     * Sums the bits written for every character counted by the given
+     * histogram, i.e., the cost of this table on its distribution.
+     * @param histogram The character counts to cost
+     * @return Total encoded length in bits, or -1 if a character cannot be
+     *         coded
+     */
+    long encodedBits (Histogram histogram) {
+        long bits = 0;
+        for (int i = 0; i < histogram.distinct(); i++) {
+            char c = histogram.symbol(i);
+            int length = characterBits(c);
+            if (length == 0) {
+                return -1;
+            }
+            bits += (long) length * histogram.count(c);
+        }
+        return bits;
+    }
+
+    /**
+     * Writes the code of every character in the given message to out. Callers
+     * are expected to have validated the message with encodedBits first.
+     * @param message The characters to encode
+     * @param out Destination of the codes
+     */
+    void encode (CharSequence message, BitWriter out) {
+        // Codes are gathered into one word until the next would overflow
+        // BitWriter.MAX_WRITE, so short codes cost a fraction of a write each
+        long batch = 0;
+        int batched = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            long code;
+            int length;
+            if (c != escape && c < lengths.length && lengths[c] != 0) {
+                code = codes[c];
+                length = lengths[c];
+            } else if (lengths[escape] + LITERAL_BITS <= BitWriter.MAX_WRITE) {
+                code = (codes[escape] << LITERAL_BITS) | c;
+                length = lengths[escape] + LITERAL_BITS;
+            } else {
+                out.write(batch, batched);
+                out.write(codes[escape], lengths[escape]);
+                batch = c;
+                batched = LITERAL_BITS;
+                continue;
+            }
+            if (batched + length > BitWriter.MAX_WRITE) {
+                out.write(batch, batched);
+                batch = 0;
+                batched = 0;
+            }
+            batch = (batch << length) | code;
+            batched += length;
+        }
+        out.write(batch, batched);
+    }
+
+}
@@ -0,0 +1,183 @@
+package huffman;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of Huffman codecs keyed by a fingerprint of the histogram they were
+ * built from, so that corpora with nearly identical character distributions
+ * share one codec instead of each repeating the trie and map construction.
+ * The fingerprint is the set of characters together with each one's share
+ * of the corpus quantized to 1 / 2^QUANTUM_BITS, which keeps every
+ * character a matching corpus can contain while ignoring small differences
+ * in the counts. The least recently used codec is evicted once the registry
+ * holds capacity codecs.
+ * <p>
+ * Registries are safe to share between threads; codecs are built outside
+ * the lock, so a slow construction does not hold up lookups.
+ */
+public final class CodecRegistry {
+
+    /**
+     * Resolution of the quantized character shares in a fingerprint.
+     */
+    static final int QUANTUM_BITS = 12;
+
+    /**
+     * Number of codecs kept by a registry created without a capacity.
+     */
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final Map<Fingerprint, Huffman> codecs;
+
+    /**
+     * Creates a registry holding up to DEFAULT_CAPACITY codecs.
+     */
+    CodecRegistry () {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a registry holding up to capacity codecs.
+     * @param capacity Number of codecs kept before evicting the least
+     *        recently used one
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    CodecRegistry (int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.codecs = new LinkedHashMap<Fingerprint, Huffman>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Fingerprint, Huffman> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the codec for corpora distributed like the given one, building
+     * it from corpus on a miss. The fingerprint is counted from a sorted copy
+     * of the corpus, so a hit allocates memory proportional to the corpus
+     * rather than a full Histogram.
+     * @param corpus The corpus to find a codec for
+     * @return A Huffman codec covering every character of corpus
+     */
+    public Huffman codecFor (CharSequence corpus) {
+        char[] sorted = new char[corpus.length()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = corpus.charAt(i);
+        }
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+        char[] symbols = new char[distinct];
+        long[] counts = new long[distinct];
+        for (int i = 0, j = -1; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                symbols[++j] = sorted[i];
+            }
+            counts[j]++;
+        }
+        Fingerprint key = new Fingerprint(symbols, counts, sorted.length);
+        Huffman codec = lookup(key);
+        return codec != null ? codec : register(key, new Huffman(Histogram.of(corpus)));
+    }
+
+    /**
+     * Returns the codec for histograms fingerprinted like the given one,
+     * building it from histogram on a miss.
+     * @param histogram The character counts to find a codec for
+     * @return A Huffman codec covering every character of histogram
+     */
+    public Huffman codecFor (Histogram histogram) {
+        char[] symbols = new char[histogram.distinct()];
+        long[] counts = new long[symbols.length];
+        long total = 0;
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = histogram.symbol(i);
+        }
+        Arrays.sort(symbols);
+        for (int i = 0; i < symbols.length; i++) {
+            counts[i] = histogram.count(symbols[i]);
+            total += counts[i];
+        }
+        Fingerprint key = new Fingerprint(symbols, counts, total);
+        Huffman codec = lookup(key);
+        return codec != null ? codec : register(key, new Huffman(histogram));
+    }
+
+    /**
+     * @return The codec held for key, or null if there is none
+     */
+    private Huffman lookup (Fingerprint key) {
+        synchronized (codecs) {
+            return codecs.get(key);
+        }
+    }
+
+    /**
+     * Holds built for key, unless another thread registered a codec for key
+     * while built was constructed outside the lock.
+     * @return The codec now held for key
+     */
+    private Huffman register (Fingerprint key, Huffman built) {
+        synchronized (codecs) {
+            Huffman raced = codecs.putIfAbsent(key, built);
+            return raced != null ? raced : built;
+        }
+    }
+
+    /**
+     * @return Number of codecs currently held
+     */
+    public int size () {
+        synchronized (codecs) {
+            return codecs.size();
+        }
+    }
+
+    /**
+     * Quantized histogram: each distinct character, in character order,
+     * followed by its share of the corpus in units of 1 / 2^QUANTUM_BITS,
+     * rounded but never below 1 so that rare characters still count.
+     */
+    private static final class Fingerprint {
+
+        private final int[] shares;
+        private final int hash;
+
+        /**
+         * @param symbols Distinct characters, in character order
+         * @param counts Count of each character of symbols
+         * @param total Sum of counts
+         */
+        Fingerprint (char[] symbols, long[] counts, long total) {
+            shares = new int[2 * symbols.length];
+            for (int i = 0; i < symbols.length; i++) {
+                shares[2 * i] = symbols[i];
+                shares[2 * i + 1] = (int) Math.max(1, ((counts[i] << QUANTUM_BITS) + total / 2) / total);
+            }
+            hash = Arrays.hashCode(shares);
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            return other instanceof Fingerprint && Arrays.equals(shares, ((Fingerprint) other).shares);
+        }
+
+        @Override
+        public int hashCode () {
+            return hash;
+        }
+
+    }
+
+}
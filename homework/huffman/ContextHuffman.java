@@ -0,0 +1,257 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ContextHuffman instances compress text with order-1 context modeling: each
+ * character is coded with a table chosen by the character before it, so
+ * that, e.g., 'u' after 'q' costs a fraction of a bit. Every context seen at
+ * least minContextCount times in the corpus, and followed there by more than
+ * one distinct character, gets a canonical table of the characters that
+ * followed it, plus an escape; characters that never followed the context
+ * are coded as the escape followed by their order-0 code. Other contexts,
+ * and the first character of a message, use the order-0 table directly.
+ * <p>
+ * The order-0 table codes characters by their rank among the corpus'
+ * distinct characters, and each context table codes them by their position
+ * among the context's followers, so that every table is only as large as
+ * the characters it actually holds. Instances are immutable and safe to
+ * share between threads.
+ */
+public class ContextHuffman implements EntropyCoder {
+
+    /**
+     * Fewest occurrences of a character in the corpus (not counting the
+     * last one) for it to get a context table of its own.
+     */
+    static final int DEFAULT_MIN_CONTEXT_COUNT = 32;
+
+    private final char[] characters;
+    private final int[] ranks;
+    private final CodeTable order0;
+    private final DecodeTable order0Decoder;
+    private final int[] contexts;
+    private final int[][] followers;
+    private final CodeTable[] tables;
+    private final DecodeTable[] decoders;
+
+    /**
+     * Creates order-0 and order-1 tables with DEFAULT_MIN_CONTEXT_COUNT.
+     * @param corpus Text with distributions comparable to later messages
+     */
+    ContextHuffman (String corpus) {
+        this(corpus, DEFAULT_MIN_CONTEXT_COUNT);
+    }
+
+    /**
+     * Creates the order-0 table of the corpus' characters and an order-1
+     * table for every context seen at least minContextCount times and
+     * followed by more than one distinct character.
+     * @param corpus Text with distributions comparable to later messages
+     * @param minContextCount Fewest occurrences of a context for it to get a
+     *        table of its own
+     * @throws IllegalArgumentException if minContextCount is not positive
+     */
+    ContextHuffman (String corpus, int minContextCount) {
+        if (minContextCount < 1) {
+            throw new IllegalArgumentException("Minimum context count must be positive");
+        }
+        Histogram histogram = Histogram.of(corpus);
+        int distinct = histogram.distinct();
+        characters = new char[distinct];
+        int maxCharacter = -1;
+        for (int i = 0; i < distinct; i++) {
+            characters[i] = histogram.symbol(i);
+            maxCharacter = Math.max(maxCharacter, characters[i]);
+        }
+        ranks = new int[maxCharacter + 1];
+        int[] order0Counts = new int[distinct];
+        for (int rank = 0; rank < distinct; rank++) {
+            ranks[characters[rank]] = rank;
+            order0Counts[rank] = histogram.count(characters[rank]);
+        }
+        order0 = CodeTable.canonical(CodeLengths.huffman(order0Counts));
+        order0Decoder = new DecodeTable(order0, FlatTrie.of(order0));
+
+        // Contexts: every character but the last one, seen often enough
+        contexts = new int[distinct];
+        for (int rank = 0; rank < distinct; rank++) {
+            int count = order0Counts[rank] - (corpus.charAt(corpus.length() - 1) == characters[rank] ? 1 : 0);
+            contexts[rank] = count >= minContextCount ? rank : -1;
+        }
+        // Every (context, follower) pair, sorted so that each context's
+        // followers are counted in one run, in rank order
+        long[] pairs = new long[Math.max(0, corpus.length() - 1)];
+        int pairCount = 0;
+        for (int i = 1; i < corpus.length(); i++) {
+            int context = contexts[ranks[corpus.charAt(i - 1)]];
+            if (context >= 0) {
+                pairs[pairCount++] = (long) context << 32 | ranks[corpus.charAt(i)];
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+        int[][] contextFollowers = new int[distinct][];
+        int[][] contextCounts = new int[distinct][];
+        int tableCount = 0;
+        for (int start = 0, end; start < pairCount; start = end) {
+            int context = (int) (pairs[start] >>> 32);
+            int followerCount = 0;
+            for (end = start; end < pairCount && (int) (pairs[end] >>> 32) == context; end++) {
+                followerCount += end == start || pairs[end] != pairs[end - 1] ? 1 : 0;
+            }
+            if (followerCount < 2) {
+                continue;
+            }
+            int[] followerRanks = new int[followerCount];
+            int[] counts = new int[followerCount + 1];
+            for (int i = start, j = -1; i < end; i++) {
+                if (i == start || pairs[i] != pairs[i - 1]) {
+                    followerRanks[++j] = (int) pairs[i];
+                }
+                counts[j]++;
+            }
+            contextFollowers[context] = followerRanks;
+            contextCounts[context] = counts;
+            tableCount++;
+        }
+        followers = new int[tableCount][];
+        tables = new CodeTable[tableCount];
+        decoders = new DecodeTable[tableCount];
+        for (int rank = 0, table = 0; rank < distinct; rank++) {
+            int[] counts = contextCounts[rank];
+            if (counts == null) {
+                contexts[rank] = -1;
+                continue;
+            }
+            // Followers seen once estimate how often a new one turns up
+            int singletons = 0;
+            for (int i = 0; i < counts.length - 1; i++) {
+                singletons += counts[i] == 1 ? 1 : 0;
+            }
+            counts[counts.length - 1] = 1 + singletons;
+            contexts[rank] = table;
+            followers[table] = contextFollowers[rank];
+            tables[table] = CodeTable.canonical(CodeLengths.huffman(counts));
+            decoders[table] = new DecodeTable(tables[table], FlatTrie.of(tables[table]));
+            table++;
+        }
+    }
+
+    /**
+     * @param context A context table
+     * @param rank The rank of a character
+     * @return Position of the character among the context's followers, or
+     *         the context's escape if it never followed the context
+     */
+    private int follower (int context, int rank) {
+        int follower = Arrays.binarySearch(followers[context], rank);
+        return follower >= 0 ? follower : followers[context].length;
+    }
+
+    /**
+     * @param c A character
+     * @return The table of the context c makes, or -1 if it has none
+     */
+    private int context (char c) {
+        return contexts[ranks[c]];
+    }
+
+    /**
+     * @param c A character
+     * @return The rank of c among the corpus' characters, or -1 if it did
+     *         not appear in the corpus
+     */
+    private int rank (char c) {
+        return c < ranks.length && characters[ranks[c]] == c ? ranks[c] : -1;
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given message, coding each character in the context of
+     * the one before it.
+     * @param message String representing the message to compress
+     * @return {@code byte[]} formatted as 3 components: (1) the number of
+     *         characters in the message as a varint, (2) the context coded
+     *         bitstring, (3) possible 0-padding on the final byte
+     * @throws IllegalArgumentException if the message contains a character
+     *         that did not appear in the corpus
+     */
+    public byte[] compress (String message) {
+        long bits = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            int rank = rank(c);
+            if (rank < 0) {
+                throw new IllegalArgumentException("Character '" + c + "' does not appear in the corpus");
+            }
+            int context = i > 0 ? context(message.charAt(i - 1)) : -1;
+            if (context < 0) {
+                bits += order0.length(rank);
+                continue;
+            }
+            int follower = follower(context, rank);
+            bits += tables[context].length(follower);
+            if (follower == followers[context].length) {
+                bits += order0.length(rank);
+            }
+        }
+        int headerSize = Varint.size(message.length());
+        long size = headerSize + ((bits + 7) >>> 3);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+        }
+        byte[] answer = new byte[(int) size];
+        Varint.write(message.length(), answer, 0);
+        BitWriter writer = new BitWriter(answer, headerSize);
+        for (int i = 0; i < message.length(); i++) {
+            int rank = ranks[message.charAt(i)];
+            int context = i > 0 ? context(message.charAt(i - 1)) : -1;
+            if (context >= 0) {
+                CodeTable table = tables[context];
+                int follower = follower(context, rank);
+                writer.write(table.code(follower), table.length(follower));
+                if (follower < followers[context].length) {
+                    continue;
+                }
+            }
+            writer.write(order0.code(rank), order0.length(rank));
+        }
+        writer.finish();
+        return answer;
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses a message written by compress.
+     * @param compressedMsg {@code byte[]} formatted as described in compress
+     * @return Decompressed String representation of the message
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    public String decompress (byte[] compressedMsg) {
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        long length = Varint.read(src);
+        // Every code is at least 1 bit long, bounding the honest lengths
+        if (length > 8L * src.remaining() || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        char[] answer = new char[(int) length];
+        BitReader reader = new BitReader(compressedMsg, src.position(), compressedMsg.length);
+        int context = -1;
+        for (int i = 0; i < answer.length; i++) {
+            int follower = context < 0 ? -1 : decoders[context].next(reader);
+            int rank = follower >= 0 && follower < followers[context].length
+                    ? followers[context][follower] : order0Decoder.next(reader);
+            answer[i] = characters[rank];
+            context = contexts[rank];
+        }
+        return new String(answer);
+    }
+
+}
@@ -0,0 +1,155 @@
+package huffman;
+
+/**
+ * Lookup table decoder for a Huffman code. The next few bits of the input
+ * index an array whose entry holds the decoded symbol together with its code
+ * length, so any code no longer than the table is wide is resolved by a
+ * single array access. Prefixes of longer codes are marked with length 0 and
+ * hold the FlatTrie node they lead to, from which decoding continues one
+ * bit at a time. A decoded escape symbol is replaced by the raw character
+ * that follows its code.
+ */
+final class DecodeTable {
+
+    /**
+     * Width of the table when codes are longer than SINGLE_LOOKUP_BITS;
+     * 2^11 entries keep it resident in L1.
+     */
+    static final int TABLE_BITS = 11;
+
+    /**
+     * Longest code length for which the table is made wide enough to
+     * resolve every code in a single lookup, as with length-limited codes.
+     */
+    static final int SINGLE_LOOKUP_BITS = 12;
+
+    private final int[] entries;
+    private final int bits;
+    private final FlatTrie trie;
+    private final int escape;
+    private final int symbolsPerRefill;
+
+    /**
+     * Creates the lookup table for the given codes.
+     * @param table The codes to decode
+     * @param trie Trie of the same codes, walked for codes longer than the
+     *        table is wide
+     */
+    DecodeTable (CodeTable table, FlatTrie trie) {
+        int maxLength = Math.max(1, table.maxLength());
+        this.bits = maxLength <= SINGLE_LOOKUP_BITS ? maxLength : TABLE_BITS;
+        this.entries = new int[1 << bits];
+        this.trie = trie;
+        this.escape = table.escape();
+        for (int symbol = 0; symbol < table.size(); symbol++) {
+            int length = table.length(symbol);
+            if (length == 0 || length > bits) {
+                continue;
+            }
+            int first = (int) table.code(symbol) << (bits - length);
+            int last = first + (1 << (bits - length));
+            for (int i = first; i < last; i++) {
+                entries[i] = (symbol << 8) | length;
+            }
+        }
+        if (maxLength > bits) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] == 0) {
+                    int node = trie.follow(i, bits);
+                    entries[i] = node > 0 ? node << 8 : 0;
+                }
+            }
+        }
+        boolean singleLookups = maxLength <= bits && escape < 0;
+        for (int i = 0; i < entries.length && singleLookups; i++) {
+            singleLookups = entries[i] != 0;
+        }
+        this.symbolsPerRefill = singleLookups ? BitReader.MAX_PEEK / bits : 0;
+    }
+
+    /**
+     * Decodes count symbols from the given reader into dst.
+     * @param reader Source of the bitstring
+     * @param dst Destination of the decoded characters
+     * @param offset Index in dst of the first character to write
+     * @param count Number of characters to decode
+     * @throws IllegalArgumentException if the bitstring contains an
+     *         unassigned code
+     */
+    void decode (BitReader reader, char[] dst, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            dst[i] = (char) next(reader);
+        }
+    }
+
+    /**
+     * Decodes the next symbol from the given reader.
+     * @param reader Source of the bitstring
+     * @return The decoded symbol
+     * @throws IllegalArgumentException if the bitstring contains an
+     *         unassigned code
+     */
+    int next (BitReader reader) {
+        reader.refill();
+        int entry = entries[reader.peek(bits)];
+        int length = entry & 0xFF;
+        int symbol;
+        if (length != 0) {
+            reader.skip(length);
+            symbol = entry >>> 8;
+        } else {
+            symbol = walk(reader, entry >>> 8);
+        }
+        return symbol != escape ? symbol : literal(reader);
+    }
+
+    /**
+     * Reads the raw character following an escape code.
+     */
+    private static int literal (BitReader reader) {
+        reader.refill();
+        int c = reader.peek(CodeTable.LITERAL_BITS);
+        reader.skip(CodeTable.LITERAL_BITS);
+        return c;
+    }
+
+    /**
+     * Returns how many symbols fastNext may decode after each refill: as
+     * many of the longest codes as fit in BitReader.MAX_PEEK bits, or 0 if
+     * some entry needs more than a single lookup (a long code, the escape,
+     * or bits that lead to no code).
+     * @return Number of symbols decodable per refill with fastNext
+     */
+    int symbolsPerRefill () {
+        return symbolsPerRefill;
+    }
+
+    /**
+     * Decodes the next symbol with a single lookup and no refill. The caller
+     * must have refilled the reader since at most symbolsPerRefill() symbols
+     * were decoded, which must be positive.
+     * @param reader Source of the bitstring
+     * @return The decoded symbol
+     */
+    int fastNext (BitReader reader) {
+        int entry = entries[reader.peek(bits)];
+        reader.skip(entry & 0xFF);
+        return entry >>> 8;
+    }
+
+    /**
+     * Decodes one symbol whose code is longer than the table is wide.
+     * @param reader Source of the bitstring, positioned at the code
+     * @param node FlatTrie node reached by the code's first bits, or 0 if
+     *        those bits lead to no code
+     * @return The decoded symbol
+     */
+    private int walk (BitReader reader, int node) {
+        if (node == 0) {
+            throw new IllegalArgumentException("Bitstring contains an unassigned code");
+        }
+        reader.skip(bits);
+        return trie.walk(reader, node);
+    }
+
+}
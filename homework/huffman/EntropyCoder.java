@@ -0,0 +1,30 @@
+package huffman;
+
+/**
+ * A reusable coder that compresses messages into self-delimiting byte arrays
+ * and back, trained ahead of time on a corpus. Implementations trade
+ * compression ratio against speed differently (Huffman codes, rANS, context
+ * models, LZ77 + Huffman), so callers holding an EntropyCoder can pick the
+ * backend per dataset without changing how messages are stored.
+ */
+public interface EntropyCoder {
+
+    /**
+     * Compresses the given message.
+     * @param message String representing the message to compress
+     * @return {@code byte[]} holding the compressed message, in a format of
+     *         the implementation's own that starts with the message length
+     * @throws IllegalArgumentException if the message cannot be coded, e.g.,
+     *         it contains a character absent from the training corpus
+     */
+    byte[] compress (String message);
+
+    /**
+     * Decompresses a message written by compress of an equivalent coder.
+     * @param compressedMsg {@code byte[]} written by compress
+     * @return Decompressed String representation of the message
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    String decompress (byte[] compressedMsg);
+
+}
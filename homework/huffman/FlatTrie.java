@@ -0,0 +1,166 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Huffman Trie stored in a single primitive array rather than as a graph of
+ * nodes. Internal nodes are numbered breadth-first from the root (node 0),
+ * and children[2 * node + bit] holds the child reached by following bit from
+ * node: a positive node number for an internal child, ~symbol (a negative
+ * value) for a leaf, or UNASSIGNED where no code continues. A trie over n
+ * symbols thus takes at most 8(n - 1) bytes, and shallow nodes, which every
+ * walk visits, share the first cache lines.
+ */
+final class FlatTrie {
+
+    /**
+     * Marks a child that no code leads to.
+     */
+    static final int UNASSIGNED = Integer.MIN_VALUE;
+
+    private final int[] children;
+
+    /**
+     * Creates a FlatTrie over the given breadth-first children array.
+     * @param children Child slots, two per internal node, as described above
+     */
+    FlatTrie (int[] children) {
+        this.children = children;
+    }
+
+    /**
+     * Creates the trie of the given codes.
+     * @param table The codes to place in the trie
+     * @return The codes' FlatTrie; an empty table yields a lone root
+     */
+    static FlatTrie of (CodeTable table) {
+        // Insert every code, numbering internal nodes in creation order...
+        int[] slots = new int[16];
+        Arrays.fill(slots, UNASSIGNED);
+        int nodes = 1;
+        for (int symbol = 0; symbol < table.size(); symbol++) {
+            int length = table.length(symbol);
+            if (length == 0) {
+                continue;
+            }
+            long code = table.code(symbol);
+            int node = 0;
+            for (int bit = length - 1; bit > 0; bit--) {
+                int slot = 2 * node + (int) ((code >>> bit) & 1);
+                if (slots[slot] == UNASSIGNED) {
+                    if (2 * nodes + 2 > slots.length) {
+                        int oldLength = slots.length;
+                        slots = Arrays.copyOf(slots, 2 * oldLength);
+                        Arrays.fill(slots, oldLength, slots.length, UNASSIGNED);
+                    }
+                    slots[slot] = nodes++;
+                }
+                node = slots[slot];
+            }
+            slots[2 * node + (int) (code & 1)] = ~symbol;
+        }
+        // ...then renumber them breadth-first
+        int[] order = new int[nodes];
+        int[] renumber = new int[nodes];
+        int head = 0, tail = 1;
+        while (head < tail) {
+            int node = order[head];
+            renumber[node] = head++;
+            for (int bit = 0; bit < 2; bit++) {
+                int child = slots[2 * node + bit];
+                if (child > 0) {
+                    order[tail++] = child;
+                }
+            }
+        }
+        int[] children = new int[2 * nodes];
+        for (int i = 0; i < nodes; i++) {
+            for (int bit = 0; bit < 2; bit++) {
+                int child = slots[2 * order[i] + bit];
+                children[2 * i + bit] = child > 0 ? renumber[child] : child;
+            }
+        }
+        return new FlatTrie(children);
+    }
+
+    /**
+     * Reads a trie written by write from the buffer's position, advancing it.
+     * @param src Buffer holding the trie, e.g., a memory-mapped file
+     * @return The FlatTrie read
+     */
+    static FlatTrie read (ByteBuffer src) {
+        int[] children = new int[src.getInt()];
+        src.asIntBuffer().get(children);
+        src.position(src.position() + 4 * children.length);
+        return new FlatTrie(children);
+    }
+
+    /**
+     * Writes this trie at the buffer's position, advancing it: the 4-byte
+     * number of child slots followed by the slots themselves.
+     * @param dst Destination buffer with at least byteSize() bytes free
+     */
+    void write (ByteBuffer dst) {
+        dst.putInt(children.length);
+        dst.asIntBuffer().put(children);
+        dst.position(dst.position() + 4 * children.length);
+    }
+
+    /**
+     * @return Number of bytes write will use
+     */
+    int byteSize () {
+        return 4 + 4 * children.length;
+    }
+
+    /**
+     * Follows a single bit from the given internal node.
+     * @param node Number of an internal node
+     * @param bit 0 for left, 1 for right
+     * @return The child slot: a node number, ~symbol, or UNASSIGNED
+     */
+    int child (int node, int bit) {
+        return children[2 * node + bit];
+    }
+
+    /**
+     * Finds where the given right-aligned path from the root leads.
+     * @param path The bits to follow, most significant first
+     * @param length Number of bits in path
+     * @return The slot reached: a node number, ~symbol of the first leaf
+     *         reached along the way, or UNASSIGNED
+     */
+    int follow (int path, int length) {
+        int node = 0;
+        for (int bit = length - 1; bit >= 0; bit--) {
+            int child = children[2 * node + ((path >>> bit) & 1)];
+            if (child <= 0) {
+                return child;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * Decodes one symbol by following bits of the reader from the given node.
+     * @param reader Source of the bitstring
+     * @param node Number of the internal node to start from
+     * @return The decoded symbol
+     * @throws IllegalArgumentException if the bits lead to no code
+     */
+    int walk (BitReader reader, int node) {
+        while (true) {
+            int child = children[2 * node + reader.readBit()];
+            if (child < 0) {
+                if (child == UNASSIGNED) {
+                    throw new IllegalArgumentException("Bitstring contains an unassigned code");
+                }
+                return ~child;
+            }
+            node = child;
+        }
+    }
+
+}
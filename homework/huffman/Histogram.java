@@ -0,0 +1,237 @@
+package huffman;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Character frequency histogram over the full 16-bit char alphabet, counted
+ * in a single pass into a primitive array. The distinct characters are also
+ * remembered in order of first occurrence, which fixes the order in which
+ * Huffman enqueues its trie leaves and so keeps the resulting codes
+ * independent of how the histogram was counted.
+ */
+public final class Histogram {
+
+    /**
+     * Fewest characters a parallel count hands to a single task.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    /**
+     * Fewest characters counted at once for the banked count to pay for
+     * its scratch banks.
+     */
+    static final int BANKED_THRESHOLD = 1 << 16;
+
+    private static final int ALPHABET = Character.MAX_VALUE + 1;
+
+    private final int[] counts = new int[ALPHABET];
+    private final char[] order = new char[ALPHABET];
+    private int distinct;
+
+    Histogram () {}
+
+    /**
+     * Counts the characters of the given text in a single pass.
+     * @param text The corpus to count
+     * @return The text's Histogram
+     */
+    public static Histogram of (CharSequence text) {
+        Histogram histogram = new Histogram();
+        histogram.add(text, 0, text.length());
+        return histogram;
+    }
+
+    /**
+     * Counts the characters of the given text by splitting it into chunks
+     * that are counted concurrently on the given pool, then merging the
+     * per-chunk histograms. The result is identical to of(text).
+     * @param text The corpus to count
+     * @param pool The pool to run the count on
+     * @return The text's Histogram
+     */
+    public static Histogram parallel (CharSequence text, ForkJoinPool pool) {
+        return pool.invoke(new CountTask(text, 0, text.length()));
+    }
+
+    /**
+     * @param c The character to look up
+     * @return Number of times c was counted
+     */
+    public int count (char c) {
+        return counts[c];
+    }
+
+    /**
+     * @return Number of distinct characters counted
+     */
+    public int distinct () {
+        return distinct;
+    }
+
+    /**
+     * @return The counts of every character, indexed by character; shared
+     *         with this histogram, so not to be modified
+     */
+    int[] counts () {
+        return counts;
+    }
+
+    /**
+     * @param i Index in [0, distinct())
+     * @return The i-th distinct character, in order of first occurrence
+     */
+    char symbol (int i) {
+        return order[i];
+    }
+
+    /**
+     * @return Total number of characters counted
+     */
+    long total () {
+        long total = 0;
+        for (int i = 0; i < distinct; i++) {
+            total += counts[order[i]];
+        }
+        return total;
+    }
+
+    /**
+     * @return An independent copy of this histogram
+     */
+    Histogram copy () {
+        Histogram copy = new Histogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * [Mutator] Halves every count, rounding up so that no character counted
+     * so far is forgotten, which lets older text fade from a histogram that
+     * keeps counting.
+     */
+    void decay () {
+        for (int i = 0; i < distinct; i++) {
+            char c = order[i];
+            counts[c] = (counts[c] + 1) >>> 1;
+        }
+    }
+
+    /**
+     * [Mutator] Counts the characters of text[from, to).
+     * @param text The corpus being counted
+     * @param from Index of the first character to count
+     * @param to Index one past the last character to count
+     */
+    void add (CharSequence text, int from, int to) {
+        if (to - from >= BANKED_THRESHOLD) {
+            addBanked(text, from, to);
+            return;
+        }
+        int[] counts = this.counts;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (counts[c]++ == 0) {
+                order[distinct++] = c;
+            }
+        }
+    }
+
+    /**
+     * [Mutator] Counts the characters of text[from, to) round-robin into 4
+     * banks, counts itself and 3 scratch arrays, then folds the scratch
+     * banks into counts. Runs of one character otherwise increment the same
+     * slot back to back, and each increment has to wait for the store of the
+     * one before it; with 4 banks, consecutive increments are independent.
+     */
+    private void addBanked (CharSequence text, int from, int to) {
+        int[] bank0 = counts, bank1 = new int[ALPHABET], bank2 = new int[ALPHABET], bank3 = new int[ALPHABET];
+        int i = from;
+        for (int end = to - 3; i < end; i += 4) {
+            char c0 = text.charAt(i), c1 = text.charAt(i + 1), c2 = text.charAt(i + 2), c3 = text.charAt(i + 3);
+            // A bank's first hit is rare; only then is the character's first
+            // occurrence overall checked for
+            if (bank0[c0]++ == 0) {
+                firstHit(c0, bank1, bank2, bank3);
+            }
+            if (bank1[c1]++ == 0) {
+                firstHit(c1, bank1, bank2, bank3);
+            }
+            if (bank2[c2]++ == 0) {
+                firstHit(c2, bank1, bank2, bank3);
+            }
+            if (bank3[c3]++ == 0) {
+                firstHit(c3, bank1, bank2, bank3);
+            }
+        }
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (bank0[c]++ == 0) {
+                firstHit(c, bank1, bank2, bank3);
+            }
+        }
+        for (int j = 0; j < distinct; j++) {
+            char c = order[j];
+            bank0[c] += bank1[c] + bank2[c] + bank3[c];
+        }
+    }
+
+    /**
+     * Appends c to the order of first occurrence if the count of c just
+     * made in one of the banks is its only one.
+     */
+    private void firstHit (char c, int[] bank1, int[] bank2, int[] bank3) {
+        if (counts[c] + bank1[c] + bank2[c] + bank3[c] == 1) {
+            order[distinct++] = c;
+        }
+    }
+
+    /**
+     * [Mutator] Adds the counts of a histogram of text that directly follows
+     * the text counted by this one.
+     * @param next Histogram of the following text
+     */
+    void merge (Histogram next) {
+        for (int i = 0; i < next.distinct; i++) {
+            char c = next.order[i];
+            if (counts[c] == 0) {
+                order[distinct++] = c;
+            }
+            counts[c] += next.counts[c];
+        }
+    }
+
+    /**
+     * Counts one chunk of the text, forking in halves above the threshold.
+     */
+    private static class CountTask extends RecursiveTask<Histogram> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence text;
+        private final int from, to;
+
+        CountTask (CharSequence text, int from, int to) {
+            this.text = text;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Histogram compute () {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                Histogram histogram = new Histogram();
+                histogram.add(text, from, to);
+                return histogram;
+            }
+            int middle = (from + to) >>> 1;
+            CountTask right = new CountTask(text, middle, to);
+            right.fork();
+            Histogram left = new CountTask(text, from, middle).compute();
+            left.merge(right.join());
+            return left;
+        }
+
+    }
+
+}
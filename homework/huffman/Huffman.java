@@ -15,26 +15,33 @@
 
 package huffman;
 
-import java.io.ByteArrayOutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.PriorityQueue;
-import java.util.Set;
 
 /**
  * Huffman instances provide reusable Huffman Encoding Maps for
  * compressing and decompressing text corpi with comparable
  * distributions of characters.
+ * <p>
+ * Instances are immutable once constructed and safe to publish: compress,
+ * decompress and every other method only read the code tables and keep
+ * their working state on the calling thread, so a single instance may
+ * serve any number of threads concurrently without synchronization.
  */
-public class Huffman {
+public class Huffman implements EntropyCoder {
     
     // -----------------------------------------------
     // Construction
     // -----------------------------------------------
 
-    private HuffNode trieRoot;
-    private Map<Character, String> encodingMap;
-    private PriorityQueue<HuffNode> trieQueue;
+    private final CodeTable encodingTable;
+    private final DecodeTable decodingTable;
+    private final MultiSymbolTable multiSymbolTable;
+    private final boolean canonical;
     
     /**
      * Creates the Huffman Trie and Encoding Map using the character
@@ -46,9 +53,145 @@ public class Huffman {
      *        differ.
      */
     Huffman (String corpus) {
-    	createTrieQueue(corpus);
-        createTrie(trieQueue);
-        createMap(trieRoot);
+        this(Histogram.of(corpus));
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map using a precomputed
+     * histogram of the character distributions in a text corpus, e.g.,
+     * one counted with Histogram.parallel for very large corpi.
+     * @param histogram Character counts of the corpus
+     */
+    Huffman (Histogram histogram) {
+        this(histogram, false);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map as in Huffman(String),
+     * optionally adding an escape code so that characters missing from the
+     * corpus can still be compressed, each as the escape code followed by
+     * its 16 raw bits. The escape is weighted as a character seen once.
+     * @param corpus A String representing a message / document corpus
+     * @param escape Whether to add the escape code
+     */
+    Huffman (String corpus, boolean escape) {
+        this(Histogram.of(corpus), escape);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map, with an optional escape
+     * code, as in Huffman(String, boolean) from a precomputed histogram.
+     * @param histogram Character counts of the corpus
+     * @param escape Whether to add the escape code
+     */
+    Huffman (Histogram histogram, boolean escape) {
+        this(createMap(createTrie(createTrieQueue(histogram, escape)), escape), false);
+    }
+    
+    /**
+     * Creates canonical Huffman codes whose lengths never exceed the given
+     * maximum, using the character distributions in the given text corpus.
+     * Codes limited to DecodeTable.SINGLE_LOOKUP_BITS (12) bits or fewer are
+     * always decoded with a single table lookup, typically at a compression
+     * ratio within a fraction of a percent of the unlimited code's. When the
+     * optimal lengths already fit, they are computed in linear time after a
+     * sort, without building a trie, so a limit of BitWriter.MAX_WRITE gives
+     * cheap unrestricted canonical codes, e.g., for rebuilding per block.
+     * @param corpus A String representing a message / document corpus, as
+     *        in Huffman(String)
+     * @param maxCodeLength Longest code allowed, in bits
+     * @throws IllegalArgumentException if the corpus has more than
+     *         2^maxCodeLength distinct characters
+     */
+    Huffman (String corpus, int maxCodeLength) {
+        this(Histogram.of(corpus), maxCodeLength);
+    }
+    
+    /**
+     * Creates canonical, length-limited Huffman codes as in
+     * Huffman(String, int) from a precomputed histogram.
+     * @param histogram Character counts of the corpus
+     * @param maxCodeLength Longest code allowed, in bits
+     */
+    Huffman (Histogram histogram, int maxCodeLength) {
+        this(histogram, maxCodeLength, false);
+    }
+    
+    /**
+     * Creates canonical, length-limited Huffman codes as in
+     * Huffman(String, int), with an optional escape code as in
+     * Huffman(String, boolean).
+     * @param histogram Character counts of the corpus
+     * @param maxCodeLength Longest code allowed, in bits
+     * @param escape Whether to add the escape code
+     */
+    Huffman (Histogram histogram, int maxCodeLength, boolean escape) {
+        this(CodeTable.canonical(CodeLengths.limited(escape ? escapedCounts(histogram) : histogram.counts(), maxCodeLength), escape), true);
+    }
+    
+    /**
+     * Copies the histogram's counts up to the escape symbol, which follows
+     * the largest character and is counted once.
+     * @param histogram Character counts of the corpus
+     * @return Counts indexed by symbol, the escape's last
+     */
+    private static int[] escapedCounts (Histogram histogram) {
+    	int escape = escapeSymbol(histogram);
+    	int[] counts = Arrays.copyOf(histogram.counts(), escape + 1);
+    	counts[escape] = 1;
+    	return counts;
+    }
+    
+    /**
+     * @param histogram Character counts of the corpus
+     * @return The symbol of the escape: one past the largest character
+     */
+    private static int escapeSymbol (Histogram histogram) {
+    	int max = -1;
+    	for (int i = 0; i < histogram.distinct(); i++) {
+    		max = Math.max(max, histogram.symbol(i));
+    	}
+    	return max + 1;
+    }
+    
+    /**
+     * Creates a Huffman instance for the given code, deriving its decoding
+     * trie and table from the codes themselves.
+     * @param encodingTable The codes to compress / decompress with
+     * @param canonical Whether the codes are canonical
+     */
+    private Huffman (CodeTable encodingTable, boolean canonical) {
+        this.encodingTable = encodingTable;
+        this.decodingTable = new DecodeTable(encodingTable, FlatTrie.of(encodingTable));
+        this.multiSymbolTable = null;
+        this.canonical = canonical;
+    }
+    
+    /**
+     * Creates a copy of the given Huffman instance that decodes through a
+     * MultiSymbolTable.
+     * @param codec The instance whose codes to share
+     * @param multiSymbolTable Multi-symbol table of the same codes
+     */
+    private Huffman (Huffman codec, MultiSymbolTable multiSymbolTable) {
+        this.encodingTable = codec.encodingTable;
+        this.decodingTable = codec.decodingTable;
+        this.multiSymbolTable = multiSymbolTable;
+        this.canonical = codec.canonical;
+    }
+    
+    /**
+     * Creates an equivalent Huffman instance that decodes several short codes
+     * per table lookup, for faster decompression of text dominated by
+     * frequent characters at the cost of a 32KB table. Its output and
+     * compressed format are identical to this instance's.
+     * @return A multi-symbol decoding Huffman instance, possibly this one
+     */
+    public Huffman withMultiSymbolDecoding () {
+        if (multiSymbolTable != null) {
+            return this;
+        }
+        return new Huffman(this, new MultiSymbolTable(encodingTable, decodingTable));
     }
     
     
@@ -58,31 +201,187 @@ public class Huffman {
     
     /**
      * Compresses the given String message / text corpus into its Huffman coded
-     * bitstring, as represented by an array of bytes. Uses the encodingMap
+     * bitstring, as represented by an array of bytes. Uses the encodingTable
      * field generated during construction for this purpose.
      * @param message String representing the corpus to compress.
      * @return {@code byte[]} representing the compressed corpus with the
      *         Huffman coded bytecode. Formatted as 3 components: (1) the
-     *         first byte contains the number of characters in the message,
-     *         (2) the bitstring containing the message itself, (3) possible
-     *         0-padding on the final byte.
+     *         number of characters in the message as a varint (7 bits per
+     *         byte, low bits first, high bit set on all but the last byte;
+     *         a single byte for messages under 128 characters), (2) the
+     *         bitstring containing the message itself, (3) possible
+     *         0-padding on the final byte. Messages that coding would not
+     *         shrink by at least 1 / 2^STORED_SAVINGS_SHIFT of their raw
+     *         UTF-16 size are stored instead, as a 0 byte, the number of
+     *         characters as a varint and the raw big-endian UTF-16 chars,
+     *         which skips encoding and makes decoding a copy. The empty
+     *         message is always stored, as {0, 0}, so a leading 0 byte
+     *         always marks the stored form and either form ends at a byte
+     *         known from its own contents.
+     * @throws IllegalArgumentException if the message contains a character
+     *         that did not appear in the corpus and this instance has no
+     *         escape code
      */
     public byte[] compress (String message) {
-    	ByteArrayOutputStream answer = new ByteArrayOutputStream();
-    	answer.write(message.length());
-    	String toAdd = "";
-    	for (int i = 0; i < message.length(); i++) {
-    		toAdd = toAdd + encodingMap.get(message.charAt(i));
+    	long bits = encodingTable.encodedBits(message);
+    	if (stores(bits, message.length())) {
+    		return store(message);
+    	}
+    	int headerSize = Varint.size(message.length());
+    	long size = headerSize + ((bits + 7) >>> 3);
+    	if (size > Integer.MAX_VALUE - 8) {
+    		throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
     	}
-    	while (toAdd.length() % 8 != 0) {
-    		toAdd = toAdd + "0";
+    	byte[] answer = new byte[(int) size];
+    	Varint.write(message.length(), answer, 0);
+    	encode(message, answer, headerSize);
+    	return answer;
+    }
+    
+    /**
+     * Compresses the given characters into dst at its position, formatted as
+     * compress(String). Works with direct buffers: the output is written
+     * straight into dst, with no intermediate array.
+     * @param src The characters to compress; a CharBuffer is read from its
+     *        position to its limit and left unmodified (but see
+     *        compress(CharBuffer, ByteBuffer))
+     * @param dst Destination buffer; its position is moved past the output
+     * @return Number of bytes written to dst
+     * @throws BufferOverflowException if dst has fewer than
+     *         compressedSize(src) bytes remaining, in which case dst is not
+     *         modified
+     * @throws IllegalArgumentException if src contains a character that did
+     *         not appear in the corpus and this instance has no escape code
+     */
+    public int compress (CharSequence src, ByteBuffer dst) {
+    	long bits = encodingTable.encodedBits(src);
+    	int size = compressedSize(bits, src.length());
+    	if (dst.remaining() < size) {
+    		throw new BufferOverflowException();
     	}
-    	for (int j = 0; j + 7 < toAdd.length(); j += 8) {
-    		String stringByte = toAdd.substring(j, j + 8);
-    		int toAddByte = Integer.parseInt(stringByte, 2);
-    		answer.write(toAddByte);
+    	if (stores(bits, src.length())) {
+    		dst.put((byte) 0);
+    		Varint.write(src.length(), dst);
+    		for (int i = 0; i < src.length(); i++) {
+    			char c = src.charAt(i);
+    			dst.put((byte) (c >>> 8));
+    			dst.put((byte) c);
+    		}
+    		return size;
     	}
-    	return answer.toByteArray();
+    	Varint.write(src.length(), dst);
+    	BitWriter writer = new BitWriter(dst);
+    	encodingTable.encode(src, writer);
+    	writer.finish();
+    	return size;
+    }
+    
+    /**
+     * Compresses the characters between src's position and limit into dst,
+     * as compress(CharSequence, ByteBuffer), then moves src's position to
+     * its limit.
+     * @param src The characters to compress
+     * @param dst Destination buffer; its position is moved past the output
+     * @return Number of bytes written to dst
+     * @throws BufferOverflowException if dst has too little room, in which
+     *         case neither buffer is modified
+     * @throws IllegalArgumentException if src contains a character that did
+     *         not appear in the corpus and this instance has no escape code
+     */
+    public int compress (CharBuffer src, ByteBuffer dst) {
+    	int size = compress((CharSequence) src, dst);
+    	src.position(src.limit());
+    	return size;
+    }
+    
+    /**
+     * Computes the exact number of bytes compress will write for the given
+     * characters, e.g., to size a destination buffer.
+     * @param message The characters to measure
+     * @return Size of the compressed output in bytes
+     * @throws IllegalArgumentException if the message contains a character
+     *         that did not appear in the corpus and this instance has no
+     *         escape code
+     */
+    public int compressedSize (CharSequence message) {
+    	return compressedSize(encodingTable.encodedBits(message), message.length());
+    }
+    
+    /**
+     * @return Size in bytes of a message of the given characters whose
+     *         bitstring takes bits bits, in whichever form compress uses
+     */
+    private static int compressedSize (long bits, int characters) {
+    	long size = stores(bits, characters)
+    			? 1 + Varint.size(characters) + 2L * characters
+    			: Varint.size(characters) + ((bits + 7) >>> 3);
+    	if (size > Integer.MAX_VALUE - 8) {
+    		throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+    	}
+    	return (int) size;
+    }
+    
+    /**
+     * Computes the exact length of the bitstring that encode writes for the
+     * given message, validating that every character has a code.
+     * @param message The characters to be encoded
+     * @return Length of the bitstring in bits, excluding padding
+     * @throws IllegalArgumentException if the message contains a character
+     *         that did not appear in the corpus
+     */
+    long encodedBits (CharSequence message) {
+    	return encodingTable.encodedBits(message);
+    }
+    
+    /**
+     * Computes the length of the bitstring that would code every character
+     * counted by the given histogram, i.e., the cost of this instance's
+     * codes on the histogram's distribution.
+     * @param histogram The character counts to cost
+     * @return Length of the bitstring in bits, or -1 if the histogram
+     *         counts a character that cannot be coded
+     */
+    long encodedBits (Histogram histogram) {
+    	return encodingTable.encodedBits(histogram);
+    }
+    
+    /**
+     * Writes the Huffman coded bitstring of the given message, 0-padded to a
+     * whole byte, into dst. The message must already have been validated by
+     * encodedBits, which also gives the room needed in dst.
+     * @param message The characters to encode
+     * @param dst Destination array
+     * @param offset Index in dst of the first byte to write
+     * @return Index one past the last byte written
+     */
+    int encode (CharSequence message, byte[] dst, int offset) {
+    	BitWriter writer = new BitWriter(dst, offset);
+    	encodingTable.encode(message, writer);
+    	return writer.finish();
+    }
+    
+    /**
+     * @param c The character to look up
+     * @return Number of bits this instance writes for c, or 0 if c cannot
+     *         be coded at all
+     */
+    int characterBits (char c) {
+    	return encodingTable.characterBits(c);
+    }
+    
+    /**
+     * @return Length in bits of the longest code of this instance
+     */
+    int maxCodeLength () {
+    	return encodingTable.maxLength();
+    }
+    
+    /**
+     * @return Most bits this instance writes for any single character,
+     *         counting an escaped character's literal bits
+     */
+    int maxCharacterBits () {
+    	return encodingTable.maxCharacterBits();
     }
     
     
@@ -92,75 +391,456 @@ public class Huffman {
     
     /**
      * Decompresses the given compressed array of bytes into their original,
-     * String representation. Uses the trieRoot field (the Huffman Trie) that
-     * generated the compressed message during decoding.
+     * String representation. Uses the decodingTable field, built from the
+     * Huffman Trie that generated the compressed message, during decoding.
      * @param compressedMsg {@code byte[]} representing the compressed corpus with the
-     *        Huffman coded bytecode. Formatted as 3 components: (1) the
-     *        first byte contains the number of characters in the message,
-     *        (2) the bitstring containing the message itself, (3) possible
-     *        0-padding on the final byte.
+     *        Huffman coded bytecode, formatted as described in compress; a
+     *        lone 0 byte, as the empty message was once written, is also
+     *        read as the empty message.
      * @return Decompressed String representation of the compressed bytecode message.
+     * @throws IllegalArgumentException if the message length is malformed or
+     *         inconsistent with the bitstring
      */
     public String decompress (byte[] compressedMsg) {
-        int size = compressedMsg[0];
-        String byteString = "";
-        for (int i = 1; i < compressedMsg.length; i++) {
-        	byte b = compressedMsg[i];
-        	byteString = byteString + String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0');
-        }
-        String toAdd = "";
-        String answer = "";
-        
-        Set<Map.Entry<Character, String>> entrySet = encodingMap.entrySet();
-        
-        for (int i = 0; i < byteString.length() && answer.length() < size; i++) {
-        	toAdd = toAdd + byteString.charAt(i);
-        	if (encodingMap.containsValue(toAdd)) {
-        		answer = answer + getKey(toAdd, entrySet);
-        		toAdd = "";
-        	}
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        long length = Varint.read(src);
+        if (length == 0 && src.hasRemaining()) {
+            return unstore(src);
+        }
+        // Every code is at least 1 bit long, bounding the honest lengths
+        if (length > 8L * src.remaining() || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        int size = (int) length;
+        char[] answer = new char[size];
+        decode(compressedMsg, src.position(), compressedMsg.length, answer, 0, size);
+        return new String(answer);
+    }
+    
+    /**
+     * Decompresses one message written by compress from src at its position
+     * into dst at its position. Either form of the message ends at a byte
+     * known from its own contents, so src may hold more data, e.g., further
+     * messages, after it. Works with direct buffers; the bitstring is read
+     * in place and, when dst has a backing array, decoded straight into it.
+     * @param src Compressed input; its position is moved past the message,
+     *        i.e., by the number of bytes consumed
+     * @param dst Destination buffer; its position is moved past the output
+     * @return Number of characters written to dst
+     * @throws BufferOverflowException if the decompressed message does not
+     *         fit in dst, in which case neither buffer's position is moved
+     * @throws IllegalArgumentException if the input is malformed, in which
+     *         case neither buffer's position is moved either
+     */
+    public int decompress (ByteBuffer src, CharBuffer dst) {
+        int start = src.position(), dstStart = dst.position();
+        try {
+            return decompressAt(src, dst);
+        } catch (BufferUnderflowException e) {
+            src.position(start);
+            dst.position(dstStart);
+            throw new IllegalArgumentException("Compressed message is truncated");
+        } catch (RuntimeException e) {
+            src.position(start);
+            dst.position(dstStart);
+            throw e;
+        }
+    }
+    
+    /**
+     * Decompresses as decompress(ByteBuffer, CharBuffer) does, leaving the
+     * buffers' positions wherever a failure happens to leave them.
+     */
+    private int decompressAt (ByteBuffer src, CharBuffer dst) {
+        long length = Varint.read(src);
+        if (length == 0 && !src.hasRemaining()) {
+            // A lone 0, as the empty message was once written
+            return 0;
+        }
+        boolean stored = length == 0;
+        if (stored) {
+            length = Varint.read(src);
+            if (length > src.remaining() / 2) {
+                throw new IllegalArgumentException("Stored message length exceeds its characters");
+            }
+        } else if (length > 8L * src.remaining()) {
+            // Every code is at least 1 bit long, bounding the honest lengths
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        int count = (int) length;
+        if (stored) {
+            int offset = src.position();
+            for (int i = 0; i < count; i++, offset += 2) {
+                dst.put((char) (((src.get(offset) & 0xFF) << 8) | (src.get(offset + 1) & 0xFF)));
+            }
+            src.position(offset);
+            return count;
+        }
+        BitReader reader = new BitReader(src);
+        if (dst.hasArray()) {
+            decode(reader, dst.array(), dst.arrayOffset() + dst.position(), count);
+            dst.position(dst.position() + count);
+        } else {
+            char[] chunk = new char[Math.min(count, DECODE_CHUNK)];
+            for (int done = 0; done < count; done += chunk.length) {
+                int n = Math.min(chunk.length, count - done);
+                decode(reader, chunk, 0, n);
+                dst.put(chunk, 0, n);
+            }
+        }
+        if (reader.overran()) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        src.position(src.position() + reader.consumed());
+        return count;
+    }
+    
+    /**
+     * Most characters decompress(ByteBuffer, CharBuffer) decodes at a time
+     * into a scratch array for a destination without a backing array.
+     */
+    private static final int DECODE_CHUNK = 4096;
+    
+    /**
+     * Decodes count characters from the Huffman coded bitstring held in
+     * src[offset, end) into dst.
+     * @param src Array holding the bitstring
+     * @param offset Index in src of the bitstring's first byte
+     * @param end Index in src one past the bitstring's last byte
+     * @param dst Destination of the decoded characters
+     * @param dstOffset Index in dst of the first character to write
+     * @param count Number of characters to decode
+     */
+    void decode (byte[] src, int offset, int end, char[] dst, int dstOffset, int count) {
+        decode(new BitReader(src, offset, end), dst, dstOffset, count);
+    }
+    
+    /**
+     * Decodes count characters from the given reader into dst.
+     */
+    private void decode (BitReader reader, char[] dst, int dstOffset, int count) {
+        if (multiSymbolTable != null) {
+            multiSymbolTable.decode(reader, dst, dstOffset, count);
+        } else {
+            decodingTable.decode(reader, dst, dstOffset, count);
+        }
+    }
+    
+    
+    // -----------------------------------------------
+    // Stored Form
+    // -----------------------------------------------
+    
+    /**
+     * Coding must save at least 1 / 2^STORED_SAVINGS_SHIFT of a message's
+     * raw UTF-16 size for the message not to be stored raw.
+     */
+    static final int STORED_SAVINGS_SHIFT = 5;
+    
+    /**
+     * Decides whether characters coded in codedBytes are better stored raw,
+     * i.e., whether coding saves less than 1 / 2^STORED_SAVINGS_SHIFT of
+     * their 2 bytes each. Coded output that is kept is therefore always
+     * strictly smaller than the raw characters.
+     * @param codedBytes Size of the coded bitstring in bytes
+     * @param characters Number of characters coded
+     * @return true if the characters should be stored raw
+     */
+    static boolean storesRaw (long codedBytes, int characters) {
+    	long raw = 2L * characters;
+    	return characters > 0 && codedBytes >= raw - (raw >>> STORED_SAVINGS_SHIFT);
+    }
+    
+    /**
+     * Decides whether compress stores a message of the given characters,
+     * whose bitstring takes bits bits: when storesRaw says so, and always
+     * for the empty message, which a length of 0 alone would leave
+     * indistinguishable from the stored form's leading 0 byte.
+     */
+    private static boolean stores (long bits, int characters) {
+    	return characters == 0 || storesRaw((bits + 7) >>> 3, characters);
+    }
+    
+    /**
+     * Writes the given characters raw, as big-endian UTF-16, into dst.
+     * @param chars The characters to write
+     * @param dst Destination array, with 2 bytes of room per character
+     * @param offset Index in dst of the first byte to write
+     * @return Index one past the last byte written
+     */
+    static int writeRaw (CharSequence chars, byte[] dst, int offset) {
+    	for (int i = 0; i < chars.length(); i++) {
+    		char c = chars.charAt(i);
+    		dst[offset++] = (byte) (c >>> 8);
+    		dst[offset++] = (byte) c;
+    	}
+    	return offset;
+    }
+    
+    /**
+     * Reads count raw big-endian UTF-16 characters from src into dst.
+     * @param src Array holding the characters
+     * @param offset Index in src of the first character's first byte
+     * @param dst Destination of the characters
+     * @param dstOffset Index in dst of the first character to write
+     * @param count Number of characters to read
+     */
+    static void readRaw (byte[] src, int offset, char[] dst, int dstOffset, int count) {
+    	for (int i = 0; i < count; i++, offset += 2) {
+    		dst[dstOffset + i] = (char) (((src[offset] & 0xFF) << 8) | (src[offset + 1] & 0xFF));
+    	}
+    }
+    
+    /**
+     * Formats the given message in the stored form described in compress.
+     */
+    private static byte[] store (String message) {
+    	int headerSize = 1 + Varint.size(message.length());
+    	if (headerSize + 2L * message.length() > Integer.MAX_VALUE - 8) {
+    		throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+    	}
+    	byte[] answer = new byte[headerSize + 2 * message.length()];
+    	Varint.write(message.length(), answer, 1);
+    	writeRaw(message, answer, headerSize);
+    	return answer;
+    }
+    
+    /**
+     * Reads a stored message whose leading 0 byte src has just been read.
+     */
+    private static String unstore (ByteBuffer src) {
+    	long length = Varint.read(src);
+    	if (length > Integer.MAX_VALUE - 8 || 2 * length != src.remaining()) {
+    		throw new IllegalArgumentException("Stored message length does not match its characters");
+    	}
+    	char[] answer = new char[(int) length];
+    	readRaw(src.array(), src.position(), answer, 0, answer.length);
+    	return new String(answer);
+    }
+    
+    
+    // -----------------------------------------------
+    // Interleaved Streams
+    // -----------------------------------------------
+    
+    /**
+     * Number of independent bitstreams written by compressInterleaved.
+     */
+    static final int STREAMS = 4;
+    
+    /**
+     * Compresses the given message as STREAMS independent bitstreams, one per
+     * contiguous quarter of the message, so that decompressInterleaved can
+     * decode the quarters in one loop whose iterations advance four bit
+     * readers with no dependency between them, which out-of-order CPUs
+     * overlap. Costs at most a few bytes over compress.
+     * @param message String representing the message to compress
+     * @return {@code byte[]} formatted as 3 components: (1) the number of
+     *         characters in the message as a varint, (2) the jump table: the
+     *         byte sizes of the first STREAMS - 1 bitstreams as varints,
+     *         (3) the bitstreams, back to back, each 0-padded to a whole byte
+     *         and holding ceil(length / STREAMS) characters but the last,
+     *         which holds the rest
+     * @throws IllegalArgumentException if the message contains a character
+     *         that did not appear in the corpus and this instance has no
+     *         escape code
+     */
+    public byte[] compressInterleaved (String message) {
+        int quarter = (message.length() + STREAMS - 1) / STREAMS;
+        String[] parts = new String[STREAMS];
+        int[] sizes = new int[STREAMS];
+        long size = Varint.size(message.length());
+        for (int i = 0; i < STREAMS; i++) {
+            int from = Math.min(message.length(), i * quarter);
+            parts[i] = message.substring(from, Math.min(message.length(), from + quarter));
+            long bytes = (encodingTable.encodedBits(parts[i]) + 7) >>> 3;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+            }
+            sizes[i] = (int) bytes;
+            size += bytes + (i < STREAMS - 1 ? Varint.size(bytes) : 0);
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+        }
+        byte[] answer = new byte[(int) size];
+        int offset = Varint.write(message.length(), answer, 0);
+        for (int i = 0; i < STREAMS - 1; i++) {
+            offset = Varint.write(sizes[i], answer, offset);
+        }
+        for (int i = 0; i < STREAMS; i++) {
+            offset = encode(parts[i], answer, offset);
         }
         return answer;
-        
+    }
+    
+    /**
+     * Decompresses a message written by compressInterleaved, decoding its
+     * four bitstreams in lockstep.
+     * @param compressedMsg {@code byte[]} formatted as described in
+     *        compressInterleaved
+     * @return Decompressed String representation of the message
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    public String decompressInterleaved (byte[] compressedMsg) {
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        long length = Varint.read(src);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        int n = (int) length, quarter = (n + STREAMS - 1) / STREAMS;
+        int[] starts = new int[STREAMS + 1];
+        for (int i = 1; i < STREAMS; i++) {
+            starts[i] = (int) Math.min(Varint.read(src), Integer.MAX_VALUE);
+        }
+        starts[0] = src.position();
+        starts[STREAMS] = compressedMsg.length;
+        for (int i = 1; i < STREAMS; i++) {
+            starts[i] = (int) Math.min((long) starts[i - 1] + starts[i], Integer.MAX_VALUE);
+        }
+        int[] counts = new int[STREAMS];
+        BitReader[] readers = new BitReader[STREAMS];
+        for (int i = 0; i < STREAMS; i++) {
+            counts[i] = Math.max(0, Math.min(n - i * quarter, quarter));
+            // Every code is at least 1 bit long, bounding the honest lengths
+            if (starts[i + 1] > compressedMsg.length || counts[i] > 8L * (starts[i + 1] - starts[i])) {
+                throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+            }
+            readers[i] = new BitReader(compressedMsg, starts[i], starts[i + 1]);
+        }
+        char[] answer = new char[n];
+        BitReader r0 = readers[0], r1 = readers[1], r2 = readers[2], r3 = readers[3];
+        int o1 = quarter, o2 = 2 * quarter, o3 = 3 * quarter;
+        // Every stream has at least as many characters as the last. When
+        // every code resolves in one lookup, refill all four readers once per
+        // batch of symbols so the loop body is nothing but table lookups
+        int j = 0, batch = decodingTable.symbolsPerRefill();
+        while (batch > 0 && j + batch <= counts[3]) {
+            r0.refill();
+            r1.refill();
+            r2.refill();
+            r3.refill();
+            for (int end = j + batch; j < end; j++) {
+                answer[j] = (char) decodingTable.fastNext(r0);
+                answer[o1 + j] = (char) decodingTable.fastNext(r1);
+                answer[o2 + j] = (char) decodingTable.fastNext(r2);
+                answer[o3 + j] = (char) decodingTable.fastNext(r3);
+            }
+        }
+        for (; j < counts[3]; j++) {
+            answer[j] = (char) decodingTable.next(r0);
+            answer[o1 + j] = (char) decodingTable.next(r1);
+            answer[o2 + j] = (char) decodingTable.next(r2);
+            answer[o3 + j] = (char) decodingTable.next(r3);
+        }
+        for (int i = 0; i < STREAMS - 1; i++) {
+            decodingTable.decode(readers[i], answer, i * quarter + j, counts[i] - j);
+        }
+        return new String(answer);
+    }
+    
+    
+    // -----------------------------------------------
+    // Canonical Codes
+    // -----------------------------------------------
+    
+    /**
+     * Creates the canonical equivalent of this Huffman instance: every
+     * character keeps its code length (and so the compression ratio is
+     * unchanged) but codes are reassigned in (length, character) order,
+     * which lets them be reconstructed from the lengths alone.
+     * @return A canonical Huffman instance, possibly this one
+     */
+    public Huffman canonical () {
+        return canonical ? this : new Huffman(encodingTable.canonical(), true);
+    }
+    
+    /**
+     * Returns whether this instance uses canonical codes, i.e., whether
+     * its header fully describes it.
+     * @return true if created by canonical or fromHeader
+     */
+    public boolean isCanonical () {
+        return canonical;
+    }
+    
+    /**
+     * Returns whether this instance has an escape code, i.e., whether it
+     * can compress characters that did not appear in its corpus.
+     * @return true if created with an escape or from a header with one
+     */
+    public boolean hasEscape () {
+        return encodingTable.escape() >= 0;
+    }
+    
+    /**
+     * Serializes this instance's code as a compact header of
+     * (character, code length) pairs, from which fromHeader creates a
+     * Huffman instance able to decompress anything this one compresses.
+     * @return {@code byte[]} header: a varint count of characters followed by,
+     *         in ascending character order, each character's varint gap from
+     *         the previous one and a byte holding its code length
+     * @throws IllegalStateException if this instance is not canonical
+     */
+    public byte[] header () {
+        if (!canonical) {
+            throw new IllegalStateException("Only canonical codes can be described by a header; see canonical()");
+        }
+        return encodingTable.header();
+    }
+    
+    /**
+     * Creates the canonical Huffman instance described by a header.
+     * @param header {@code byte[]} written by header()
+     * @return Huffman instance using the header's canonical code
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    public static Huffman fromHeader (byte[] header) {
+        return fromHeader(ByteBuffer.wrap(header));
+    }
+    
+    /**
+     * Creates the canonical Huffman instance described by the header at the
+     * buffer's position, advancing it past the header.
+     * @param src Buffer holding a header written by header()
+     * @return Huffman instance using the header's canonical code
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    static Huffman fromHeader (ByteBuffer src) {
+        return new Huffman(CodeTable.readHeader(src), true);
     }
     
     /**
      * Creates Trie Priority Queue that is used to build the Trie.
-     * Stores the created trie queue in trieQueue.
-     * @param String corpus string used to build trie
-     * @return void
-     */
-    private void createTrieQueue (String corpus) {
-    	trieQueue = new PriorityQueue<HuffNode>();
-        for (int i = 0; i < corpus.length(); i++) {
-        	char toTest = corpus.charAt(i);
-        	Boolean contains = false;
-        	for (HuffNode testNode : trieQueue) {
-        		if (testNode.character == toTest) {
-        			contains = true;
-        			break;
-        		}
-        	}
-        	if (!contains) {
-        		int count = 0;
-        		for (int j = i; j < corpus.length(); j++) {
-        			if (corpus.charAt(j) == toTest) {
-        				count++;
-        			}
-        		}
-        		trieQueue.add(new HuffNode(toTest, count));
-        	}
-        }
-    }
-    
-    /**
-     * Creates Trie using the given priority queue.
-     * Stores the created trie root in trieRoot.
+     * Leaves are enqueued in the order their characters first appear in
+     * the corpus, followed by the escape leaf if requested.
+     * @param Histogram histogram character counts used to build trie
+     * @param boolean escape whether to enqueue an escape leaf, counted once
+     * @return PriorityQueue<HuffNode> the created trie queue
+     */
+    private static PriorityQueue<HuffNode> createTrieQueue (Histogram histogram, boolean escape) {
+    	PriorityQueue<HuffNode> trieQueue = new PriorityQueue<HuffNode>();
+        for (int i = 0; i < histogram.distinct(); i++) {
+        	char character = histogram.symbol(i);
+        	trieQueue.add(new HuffNode(character, histogram.count(character)));
+        }
+        if (escape) {
+        	trieQueue.add(new HuffNode(escapeSymbol(histogram), 1));
+        }
+        return trieQueue;
+    }
+    
+    /**
+     * Creates Trie using the given priority queue. The trie is only needed
+     * to derive the codes; decoding uses a FlatTrie built from them.
      * @param PriorityQueue<HuffNode> trieQueuetrieQueue priority 
      * 								  queue used to build trie
-     * @return void
+     * @return HuffNode the root of the created trie
      */
-    private void createTrie(PriorityQueue<HuffNode> trieQueue) {
+    private static HuffNode createTrie(PriorityQueue<HuffNode> trieQueue) {
     	while (trieQueue.size() > 1) {
     		HuffNode first = trieQueue.poll();
     		HuffNode second = trieQueue.poll();
@@ -169,52 +849,61 @@ public class Huffman {
     		toAdd.left = first;
     		trieQueue.add(toAdd);
     	}
-    	trieRoot = trieQueue.poll();
+    	return trieQueue.poll();
     }
     
     /**
-     * Creates encoding map using the given trie.
-     * Stores the created encoding map in encodingMap.
+     * Creates the encoding table using the given trie, holding each
+     * character's code as a (bits, length) pair indexed by character.
+     * A trie consisting of a single leaf is given the 1-bit code 0.
      * @param HuffNode trieRoot the root of the trie
-     * @return void
+     * @param boolean escape whether the largest symbol is the escape
+     * @return CodeTable the created encoding table
      */
-    private void createMap(HuffNode trieRoot) {
-    	encodingMap = new HashMap<Character, String>();
-    	String code = "";
-    	generateCode(trieRoot, code);
+    private static CodeTable createMap(HuffNode trieRoot, boolean escape) {
+    	int size = trieRoot == null ? 0 : maxCharacter(trieRoot) + 1;
+    	long[] codes = new long[size];
+    	byte[] lengths = new byte[size];
+    	if (trieRoot != null && trieRoot.isLeaf()) {
+    		lengths[trieRoot.character] = 1;
+    	} else if (trieRoot != null) {
+    		generateTable(trieRoot, 0, 0, codes, lengths);
+    	}
+    	return new CodeTable(codes, lengths, escape);
     }
     
     /**
-     * Recursive function to find the codes for the encoding map
+     * Recursive function to fill the encoding table's codes and lengths
      * Uses depth-first traversal
-     * @param HuffNode currentNode the current node to be investigated
-     * @param String currentCode the code used to get to the current node with
-     * 							 0 indicating a step to the left and 1 indicating
-     * 							 a step to the right
-     * @return void
+     * @param currentNode the current node to be investigated
+     * @param code the bits used to get to the current node, right-aligned
+     * @param length the depth of the current node
+     * @param codes the table's code bits, indexed by character
+     * @param lengths the table's code lengths, indexed by character
      */
-    private void generateCode(HuffNode currentNode, String currentCode) {
+    private static void generateTable(HuffNode currentNode, long code, int length, long[] codes, byte[] lengths) {
     	if (currentNode.isLeaf()) {
-    		encodingMap.put(currentNode.character, currentCode);
+    		if (length > BitWriter.MAX_WRITE) {
+    			throw new IllegalStateException("Huffman code exceeds " + BitWriter.MAX_WRITE + " bits");
+    		}
+    		codes[currentNode.character] = code;
+    		lengths[currentNode.character] = (byte) length;
     	} else {
-    		generateCode(currentNode.left, currentCode + "0");
-    		generateCode(currentNode.right, currentCode + "1");
+    		generateTable(currentNode.left, code << 1, length + 1, codes, lengths);
+    		generateTable(currentNode.right, (code << 1) | 1, length + 1, codes, lengths);
     	}
     }
     
     /**
-     * Finds a key given a value in a set
-     * @param String value the value whose key needs to be found
-     * @param Set<Map.Entry<Character, String>> entrySet the set of keys and values
-     * @return char the needed key or the empty char
+     * Finds the largest character stored in the leaves of the given trie
+     * @param currentNode the root of the (sub)trie to search
+     * @return the largest leaf character
      */
-    private char getKey(String value, Set<Map.Entry<Character, String>> entrySet) {
-    	for (Map.Entry<Character, String> entry : entrySet) {
-    		if (entry.getValue().equals(value)) {
-    			return entry.getKey();
-    		}
+    private static int maxCharacter(HuffNode currentNode) {
+    	if (currentNode.isLeaf()) {
+    		return currentNode.character;
     	}
-    	return '\0';
+    	return Math.max(maxCharacter(currentNode.left), maxCharacter(currentNode.right));
     }
     
     // -----------------------------------------------
@@ -225,16 +914,17 @@ public class Huffman {
      * Huffman Trie Node class used in construction of the Huffman Trie.
      * Each node is a binary (having at most a left and right child), contains
      * a character field that it represents (in the case of a leaf, otherwise
-     * the null character \0), and a count field that holds the number of times
+     * the null character \0; the escape leaf holds the escape symbol, past
+     * every character), and a count field that holds the number of times
      * the node's character (or those in its subtrees) appear in the corpus.
      */
     private static class HuffNode implements Comparable<HuffNode> {
         
         HuffNode left, right;
-        char character;
+        int character;
         int count;
         
-        HuffNode (char character, int count) {
+        HuffNode (int character, int count) {
             this.count = count;
             this.character = character;
         }
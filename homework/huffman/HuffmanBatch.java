@@ -0,0 +1,205 @@
+package huffman;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compresses many short messages into one batch sharing a single canonical
+ * Huffman header, so that no message pays for a header or codec setup of its
+ * own, and decodes any one of them without touching the others. A batch is
+ * formatted as 5 components: (1) the codec's header (see Huffman.header),
+ * (2) the number of messages as a varint, (3) a byte holding the width of
+ * the index entries, the fewest bytes (1 to 4) that hold the data size,
+ * (4) an index holding, for each message, the big-endian offset one past its
+ * last byte (relative to the start of the data) in that many bytes, and
+ * (5) the data: each message's character count as a varint followed by its
+ * 0-padded bitstring, back to back. As in BlockContainer, a message that
+ * coding would not shrink enough is stored as raw big-endian UTF-16 chars,
+ * recognized by its size of exactly 2 bytes per character.
+ * <p>
+ * Instances are opened from a batch with open, which reads the header once;
+ * get then seeks to any message through the index in constant time.
+ */
+public class HuffmanBatch {
+
+    private final Huffman codec;
+    private final byte[] batch;
+    private final int count, width, indexStart, dataStart;
+
+    /**
+     * Parses the header and index of a batch.
+     * @param batch {@code byte[]} written by compress
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    HuffmanBatch (byte[] batch) {
+        ByteBuffer src = ByteBuffer.wrap(batch);
+        try {
+            this.codec = Huffman.fromHeader(src);
+            long count = Varint.read(src);
+            int width = src.get();
+            if (count > Integer.MAX_VALUE || width < 1 || width > 4) {
+                throw new IllegalArgumentException("Malformed Huffman batch");
+            }
+            this.count = (int) count;
+            this.width = width;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed Huffman batch");
+        }
+        this.batch = batch;
+        this.indexStart = src.position();
+        long dataStart = indexStart + (long) width * count;
+        if (dataStart > batch.length) {
+            throw new IllegalArgumentException("Malformed Huffman batch");
+        }
+        this.dataStart = (int) dataStart;
+        if (end(count - 1) > batch.length) {
+            throw new IllegalArgumentException("Malformed Huffman batch");
+        }
+    }
+
+    /**
+     * Opens a batch for reading, creating its codec from the shared header.
+     * @param batch {@code byte[]} written by compress
+     * @return HuffmanBatch reading the given batch
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    public static HuffmanBatch open (byte[] batch) {
+        return new HuffmanBatch(batch);
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given messages into one batch coded with codec.
+     * @param codec Canonical Huffman codes to compress with
+     * @param messages Messages to compress, in the order get will index them
+     * @return {@code byte[]} batch, formatted as described above
+     * @throws IllegalStateException if codec is not canonical
+     * @throws IllegalArgumentException if a message contains a character
+     *         that did not appear in the codec's corpus and the codec has no
+     *         escape code
+     */
+    public static byte[] compress (Huffman codec, List<String> messages) {
+        byte[] header = codec.header();
+        int count = messages.size();
+        long[] ends = new long[count];
+        boolean[] raw = new boolean[count];
+        long dataSize = 0;
+        for (int i = 0; i < count; i++) {
+            String message = messages.get(i);
+            long size = (codec.encodedBits(message) + 7) >>> 3;
+            raw[i] = Huffman.storesRaw(size, message.length());
+            dataSize += Varint.size(message.length()) + (raw[i] ? 2L * message.length() : size);
+            ends[i] = dataSize;
+        }
+        int width = 1;
+        while (width < 4 && dataSize >>> (8 * width) != 0) {
+            width++;
+        }
+        long dataStart = header.length + Varint.size(count) + 1 + (long) width * count;
+        if (dataStart + dataSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Batch would exceed the maximum array size");
+        }
+        byte[] answer = new byte[(int) (dataStart + dataSize)];
+        System.arraycopy(header, 0, answer, 0, header.length);
+        int offset = Varint.write(count, answer, header.length);
+        answer[offset++] = (byte) width;
+        for (int i = 0; i < count; i++) {
+            for (int shift = 8 * (width - 1); shift >= 0; shift -= 8) {
+                answer[offset++] = (byte) (ends[i] >>> shift);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            String message = messages.get(i);
+            offset = Varint.write(message.length(), answer, offset);
+            offset = raw[i] ? Huffman.writeRaw(message, answer, offset) : codec.encode(message, answer, offset);
+        }
+        return answer;
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * @return Number of messages in the batch
+     */
+    public int size () {
+        return count;
+    }
+
+    /**
+     * @return The canonical Huffman instance described by the batch's header
+     */
+    public Huffman codec () {
+        return codec;
+    }
+
+    /**
+     * Decompresses a single message of the batch.
+     * @param i Index of the message, in [0, size())
+     * @return The i-th message given to compress
+     * @throws IllegalArgumentException if the message's data is malformed
+     */
+    public String get (int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Message " + i + " outside batch of " + count + " messages");
+        }
+        // Only the last offset is checked by the constructor; the others are
+        // checked as they are used, keeping open independent of the count
+        int start = end(i - 1), end = end(i);
+        if (start >= end || end > batch.length) {
+            throw new IllegalArgumentException("Malformed Huffman batch");
+        }
+        ByteBuffer src = ByteBuffer.wrap(batch, start, end - start);
+        long length;
+        try {
+            length = Varint.read(src);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed Huffman batch");
+        }
+        int offset = src.position();
+        // Every code is at least 1 bit long, bounding the honest lengths
+        if (length > 8L * (end - offset)) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        char[] answer = new char[(int) length];
+        if (end - offset == 2L * length && length > 0) {
+            Huffman.readRaw(batch, offset, answer, 0, answer.length);
+        } else {
+            codec.decode(batch, offset, end, answer, 0, answer.length);
+        }
+        return new String(answer);
+    }
+
+    /**
+     * Decompresses every message of the batch.
+     * @return The messages given to compress, in order
+     */
+    public List<String> getAll () {
+        List<String> answer = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            answer.add(get(i));
+        }
+        return answer;
+    }
+
+    /**
+     * @return Absolute index one past the last byte of the given message
+     */
+    private int end (int i) {
+        if (i < 0) {
+            return dataStart;
+        }
+        long end = 0;
+        for (int j = indexStart + width * i, last = j + width; j < last; j++) {
+            end = (end << 8) | (batch[j] & 0xFF);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, dataStart + end);
+    }
+
+}
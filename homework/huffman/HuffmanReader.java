@@ -0,0 +1,114 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Reader that decompresses the frames written by a HuffmanWriter from an
+ * underlying InputStream, one frame at a time, so memory use is bounded by
+ * the frame size rather than by the length of the text.
+ */
+public class HuffmanReader extends Reader {
+
+    private final Huffman codec;
+    private final InputStream in;
+    private final byte[] buffer;
+    private final char[] frame = new char[HuffmanWriter.FRAME_SIZE];
+    private int position, limit;
+    private boolean ended, closed;
+
+    /**
+     * Creates a HuffmanReader decompressing from the given stream.
+     * @param codec Huffman codes the stream was compressed with
+     * @param in Source of the compressed frames
+     */
+    HuffmanReader (Huffman codec, InputStream in) {
+        this.codec = codec;
+        this.in = in;
+        this.buffer = new byte[HuffmanWriter.frameCapacity(codec)];
+    }
+
+    @Override
+    public int read () throws IOException {
+        ensureOpen();
+        if (position == limit && !readFrame()) {
+            return -1;
+        }
+        return frame[position++];
+    }
+
+    @Override
+    public int read (char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !readFrame()) {
+            return -1;
+        }
+        int count = Math.min(len, limit - position);
+        System.arraycopy(frame, position, cbuf, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public boolean ready () throws IOException {
+        ensureOpen();
+        return position < limit;
+    }
+
+    @Override
+    public void close () throws IOException {
+        if (!closed) {
+            closed = true;
+            in.close();
+        }
+    }
+
+    /**
+     * Reads and decodes the next frame into the character buffer.
+     * @return false if the end-of-stream marker was reached instead
+     * @throws EOFException if the stream ends before its marker
+     * @throws IOException if a frame is malformed
+     */
+    private boolean readFrame () throws IOException {
+        if (ended) {
+            return false;
+        }
+        long count = Varint.read(in);
+        if (count == 0) {
+            ended = true;
+            return false;
+        }
+        long dataSize = Varint.read(in);
+        if (count > frame.length || dataSize > buffer.length || count > 8 * dataSize) {
+            throw new IOException("Malformed Huffman frame");
+        }
+        int read = 0;
+        while (read < dataSize) {
+            int n = in.read(buffer, read, (int) dataSize - read);
+            if (n < 0) {
+                throw new EOFException("Stream ended inside a Huffman frame");
+            }
+            read += n;
+        }
+        try {
+            codec.decode(buffer, 0, read, frame, 0, (int) count);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed Huffman frame", e);
+        }
+        position = 0;
+        limit = (int) count;
+        return true;
+    }
+
+    private void ensureOpen () throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+}
@@ -1,10 +1,47 @@
 package huffman;
 
 import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.junit.Test;
 
 public class HuffmanTests {
     
+    /**
+     * @return Corpus of the given number of characters from 'a' on, each
+     *         repeated as many times as the next Fibonacci number (1, 2, 3,
+     *         5, ...), which gives the most skewed trie for that many
+     */
+    private static String fibonacciCorpus(int symbols) {
+        StringBuilder corpus = new StringBuilder();
+        int previous = 1, current = 1;
+        for (char c = 'a'; c < 'a' + symbols; c++) {
+            for (int i = 0; i < current; i++) {
+                corpus.append(c);
+            }
+            int next = previous + current;
+            previous = current;
+            current = next;
+        }
+        return corpus.toString();
+    }
+    
     // Compression Tests
     // -----------------------------------------------
     @Test
@@ -48,6 +85,39 @@ public class HuffmanTests {
         assertArrayEquals(compressed, h.compress("BABCBC"));
     }
     
+    @Test
+    public void comp_t4() {
+        Huffman h = new Huffman("AAAA");
+        // byte 0: 0000 0011 = 3 (message length = 3)
+        // byte 1: 0000 0000 = 0 (single-character corpus: 0 = "A")
+        byte[] compressed = {3, 0};
+        assertArrayEquals(compressed, h.compress("AAA"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void comp_t5() {
+        Huffman h = new Huffman("ABBBCC");
+        // "D" never appeared in the corpus, so it has no code
+        h.compress("ABCD");
+    }
+    
+    @Test
+    public void comp_t6() {
+        Huffman h = new Huffman("AB");
+        // bytes 0-1: 1010 1100, 0000 0010 = varint 300 (message length = 300)
+        // bytes 2-38: 0101 0101 = 85 (0 = "A", 1 = "B")
+        // byte 39: 0101 0000 = 80, last 4 bits padding
+        String message = "";
+        for (int i = 0; i < 150; i++) {
+            message += "AB";
+        }
+        byte[] compressed = h.compress(message);
+        assertEquals(2 + 38, compressed.length);
+        assertEquals(-84, compressed[0]);
+        assertEquals(2, compressed[1]);
+        assertEquals(85, compressed[2]);
+        assertEquals(80, compressed[39]);
+    }
     
     // Decompression Tests
     // -----------------------------------------------
@@ -89,4 +159,1081 @@ public class HuffmanTests {
         assertEquals("BABCBC", h.decompress(compressed));
     }
     
+    @Test
+    public void decom_t5() {
+        // Fibonacci counts give a maximally skewed trie whose deepest codes
+        // are longer than the decode table is wide
+        Huffman h = new Huffman(fibonacciCorpus(16));
+        String message = "abcdefghijklmnopponmlkjihgfedcba";
+        assertEquals(message, h.decompress(h.compress(message)));
+    }
+    
+    
+    @Test
+    public void decom_t6() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 100000) {
+            message.append("the lazy dog jumps over the quick brown fox ");
+        }
+        assertEquals(message.toString(), h.decompress(h.compress(message.toString())));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void decom_t7() {
+        Huffman h = new Huffman("AB");
+        // varint 300 claims more characters than 1 byte of bits could hold
+        byte[] compressed = {-84, 2, 64};
+        h.decompress(compressed);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void decom_t8() {
+        Huffman h = new Huffman("AB");
+        // 10-byte varint with bit 63 set, which would be a negative length
+        byte[] compressed = {-1, -1, -1, -1, -1, -1, -1, -1, -1, 127, 1};
+        h.decompress(compressed);
+    }
+    
+    // Histogram Tests
+    // -----------------------------------------------
+    @Test
+    public void hist_t0() {
+        Histogram histogram = Histogram.of("ACADACBABE");
+        assertEquals(5, histogram.distinct());
+        assertEquals(4, histogram.count('A'));
+        assertEquals(2, histogram.count('C'));
+        assertEquals(0, histogram.count('F'));
+    }
+    
+    @Test
+    public void hist_t1() {
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; corpus.length() < 3 * Histogram.PARALLEL_THRESHOLD; i++) {
+            corpus.append(i % 3 == 0 ? 'E' : (char) ('A' + i % 26));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Histogram parallel = Histogram.parallel(corpus, pool);
+        pool.shutdown();
+        String message = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        assertArrayEquals(new Huffman(corpus.toString()).compress(message), new Huffman(parallel).compress(message));
+    }
+    
+    @Test
+    public void hist_t2() {
+        // New characters turn up in every bank and in the unrolled tail
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; corpus.length() < 2 * Histogram.BANKED_THRESHOLD + 3; i++) {
+            corpus.append(i % 7 == 0 ? (char) ('A' + (i / 7) % 300) : 'a');
+        }
+        Histogram banked = Histogram.of(corpus);
+        Histogram chunked = new Histogram();
+        for (int from = 0; from < corpus.length(); from += 1000) {
+            chunked.add(corpus, from, Math.min(from + 1000, corpus.length()));
+        }
+        assertEquals(chunked.distinct(), banked.distinct());
+        for (int i = 0; i < chunked.distinct(); i++) {
+            assertEquals(chunked.symbol(i), banked.symbol(i));
+            assertEquals(chunked.count(chunked.symbol(i)), banked.count(banked.symbol(i)));
+        }
+    }
+    
+    // Canonical Code Tests
+    // -----------------------------------------------
+    @Test
+    public void canon_t0() {
+        Huffman h = new Huffman("ABBBCC").canonical();
+        // Canonical Map: {B=0, A=10, C=11}
+        byte[] compressed = {6, -121, -128};
+        assertArrayEquals(compressed, h.compress("ABBBCC"));
+    }
+    
+    @Test
+    public void canon_t1() {
+        Huffman h = new Huffman("ABBBCC").canonical();
+        // count = 3, then (gap, length): A = (65, 2), B = (1, 1), C = (1, 2)
+        byte[] header = {3, 65, 2, 1, 1, 1, 2};
+        assertArrayEquals(header, h.header());
+    }
+    
+    @Test
+    public void canon_t2() {
+        Huffman h = new Huffman("ABCDEFGHIJ").canonical();
+        Huffman fromHeader = Huffman.fromHeader(h.header());
+        assertEquals("JIHGFEDCBA", fromHeader.decompress(h.compress("JIHGFEDCBA")));
+        assertArrayEquals(h.compress("AAABBB"), fromHeader.compress("AAABBB"));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void canon_t3() {
+        new Huffman("ABCDEFGHIJ").header();
+    }
+    
+    @Test
+    public void canon_t4() {
+        // Truncated after the first symbol's gap, then a gap past the escape
+        byte[][] headers = {{3, 65}, {2, 65, 2, -1, -1, -1, -1, -1, -1, -1, -1, 127, 1}};
+        for (byte[] header : headers) {
+            try {
+                Huffman.fromHeader(header);
+                fail();
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+    
+    
+    // Length-Limited Code Tests
+    // -----------------------------------------------
+    @Test
+    public void limit_t0() {
+        // Limiting "ABBBCC" to 2 bits changes nothing: {B=0, A=10, C=11}
+        Huffman h = new Huffman("ABBBCC", 2);
+        byte[] compressed = {6, -121, -128};
+        assertArrayEquals(compressed, h.compress("ABBBCC"));
+        assertTrue(h.isCanonical());
+    }
+    
+    @Test
+    public void limit_t1() {
+        // Fibonacci counts reach 15-bit codes unless limited
+        String corpus = fibonacciCorpus(16);
+        Huffman unlimited = new Huffman(corpus);
+        Huffman limited = new Huffman(corpus, 8);
+        assertEquals(15, unlimited.maxCodeLength());
+        assertEquals(8, limited.maxCodeLength());
+        String message = "abcdefghijklmnopponmlkjihgfedcba";
+        assertEquals(message, limited.decompress(limited.compress(message)));
+        assertEquals(message, Huffman.fromHeader(limited.header()).decompress(limited.compress(message)));
+        assertTrue(limited.compress(corpus).length < 1.01 * unlimited.compress(corpus).length);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void limit_t2() {
+        // 5 distinct characters need more than 2 bits
+        new Huffman("ABCDE", 2);
+    }
+    
+    @Test
+    public void limit_t3() {
+        // {A=1, B=3, C=2} gives {B=1, A=2, C=2} without a trie
+        int[] frequencies = new int['D'];
+        frequencies['A'] = 1;
+        frequencies['B'] = 3;
+        frequencies['C'] = 2;
+        byte[] lengths = new byte['D'];
+        lengths['A'] = 2;
+        lengths['B'] = 1;
+        lengths['C'] = 2;
+        assertArrayEquals(lengths, CodeLengths.huffman(frequencies));
+        assertArrayEquals(lengths, CodeLengths.limited(frequencies, 2));
+    }
+    
+    @Test
+    public void limit_t4() {
+        // Linear-time lengths cost the same as package-merge's and fill the code space
+        int[] frequencies = new int[300];
+        long seed = 42;
+        for (int i = 0; i < frequencies.length; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            frequencies[i] = i % 7 == 0 ? 0 : (int) (seed >>> 44) >>> (i % 17);
+        }
+        byte[] linear = CodeLengths.huffman(frequencies);
+        byte[] merged = CodeLengths.packageMerge(frequencies, BitWriter.MAX_WRITE);
+        long linearCost = 0, mergedCost = 0, kraft = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            linearCost += (long) frequencies[i] * (i < linear.length ? linear[i] : 0);
+            mergedCost += (long) frequencies[i] * (i < merged.length ? merged[i] : 0);
+            kraft += i < linear.length && linear[i] > 0 ? 1L << (BitWriter.MAX_WRITE - linear[i]) : 0;
+        }
+        assertEquals(mergedCost, linearCost);
+        assertEquals(1L << BitWriter.MAX_WRITE, kraft);
+    }
+    
+    // Flat Trie Tests
+    // -----------------------------------------------
+    @Test
+    public void trie_t0() {
+        byte[] lengths = new byte['D'];
+        lengths['A'] = 2;
+        lengths['B'] = 1;
+        lengths['C'] = 2;
+        // {B=0, A=10, C=11}: root 0 = [B, node 1], node 1 = [A, C]
+        FlatTrie trie = FlatTrie.of(CodeTable.canonical(lengths));
+        assertEquals(~'B', trie.child(0, 0));
+        assertEquals(1, trie.child(0, 1));
+        assertEquals(~'A', trie.child(1, 0));
+        assertEquals(~'C', trie.child(1, 1));
+        ByteBuffer buffer = ByteBuffer.allocate(trie.byteSize());
+        trie.write(buffer);
+        buffer.flip();
+        FlatTrie copy = FlatTrie.read(buffer);
+        assertEquals(~'C', copy.follow(3, 2));
+        assertEquals(0, buffer.remaining());
+    }
+    
+    // Byte Codec Tests
+    // -----------------------------------------------
+    @Test
+    public void bytes_t0() {
+        ByteHuffman h = new ByteHuffman(new byte[] {1, -1, -1, -1, 0, 0});
+        // Canonical Map: {-1=0, 0=10, 1=11}
+        // byte 0: message length = 6
+        // byte 1: 1100 0101 = -59, byte 2: 0000 0000 = 0 (1 bit + padding)
+        byte[] compressed = {6, -59, 0};
+        assertArrayEquals(compressed, h.compress(new byte[] {1, -1, -1, -1, 0, 0}));
+        assertArrayEquals(new byte[] {1, -1, -1, -1, 0, 0}, h.decompress(compressed));
+    }
+    
+    @Test
+    public void bytes_t1() {
+        byte[] corpus = new byte[100000];
+        for (int i = 0; i < corpus.length; i++) {
+            corpus[i] = (byte) (i % 7 == 0 ? i : i % 10);
+        }
+        ByteHuffman h = ByteHuffman.fromHeader(new ByteHuffman(corpus).header());
+        ByteBuffer src = ByteBuffer.allocateDirect(corpus.length);
+        src.put(corpus).flip();
+        ByteBuffer compressed = ByteBuffer.allocateDirect(h.compressedSize(src) + 3);
+        compressed.put(new byte[] {9, 9, 9});
+        int written = h.compress(src, compressed);
+        assertEquals(0, src.remaining());
+        assertEquals(written + 3, compressed.position());
+        compressed.flip().position(3);
+        ByteBuffer decompressed = ByteBuffer.allocateDirect(corpus.length);
+        assertEquals(corpus.length, h.decompress(compressed, decompressed));
+        assertEquals(0, compressed.remaining());
+        decompressed.flip();
+        byte[] result = new byte[corpus.length];
+        decompressed.get(result);
+        assertArrayEquals(corpus, result);
+    }
+    
+    @Test(expected = BufferOverflowException.class)
+    public void bytes_t2() {
+        ByteHuffman h = new ByteHuffman(new byte[] {1, 2, 3});
+        h.compress(ByteBuffer.wrap(new byte[] {1, 2, 3, 3, 2, 1}), ByteBuffer.allocate(2));
+    }
+    
+    @Test
+    public void bytes_t3() {
+        ByteHuffman h = new ByteHuffman(new byte[] {1, -1, -1, -1, 0, 0});
+        // Truncated length varint
+        ByteBuffer src = ByteBuffer.wrap(new byte[] {-84});
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        try {
+            h.decompress(src, dst);
+            fail();
+        } catch (IllegalArgumentException e) {}
+        assertEquals(0, src.position());
+        assertEquals(0, dst.position());
+        try {
+            h.decompress(new byte[] {-84});
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    @Test
+    public void bytes_t4() {
+        ByteHuffman h = new ByteHuffman(new byte[] {1, -1, -1, -1, 0, 0});
+        // {6, -59, 0} with its last byte dropped: the 6 bytes need 9 bits
+        ByteBuffer src = ByteBuffer.wrap(new byte[] {6, -59});
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        try {
+            h.decompress(src, dst);
+            fail();
+        } catch (IllegalArgumentException e) {}
+        assertEquals(0, src.position());
+        assertEquals(0, dst.position());
+        try {
+            h.decompress(new byte[] {6, -59});
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    // Adaptive Huffman Tests
+    // -----------------------------------------------
+    @Test
+    public void adapt_t0() {
+        AdaptiveHuffman encoder = new AdaptiveHuffman();
+        // byte 0: message length = 2
+        // "A": NYT (empty code) + 0000 0000 0100 0001
+        // "A": leaf A = 1
+        // bytes 1-2: 0000 0000 0100 0001, byte 3: 1000 0000 = -128
+        byte[] compressed = {2, 0, 65, -128};
+        assertArrayEquals(compressed, encoder.compress("AA"));
+        assertEquals("AA", new AdaptiveHuffman().decompress(compressed));
+    }
+    
+    @Test
+    public void adapt_t1() {
+        AdaptiveHuffman encoder = new AdaptiveHuffman();
+        AdaptiveHuffman decoder = new AdaptiveHuffman();
+        String[] messages = {
+            "This is a full sentence. How odd to see it in a test case!",
+            "",
+            "Punctuation and all. Wow. \u00e9\u4e2d\uffff\u0000",
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+            "zyxwvutsrqponmlkjihgfedcbaZYXWVUTSRQPONMLKJIHGFEDCBA0987654321"
+        };
+        int total = 0;
+        for (String message : messages) {
+            byte[] compressed = encoder.compress(message);
+            total += compressed.length;
+            assertEquals(message, decoder.decompress(compressed));
+        }
+        StringBuilder shifted = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            shifted.append((char) (i < 10000 ? 'a' + i % 3 : '0' + i % 5));
+        }
+        byte[] compressed = encoder.compress(shifted.toString());
+        assertEquals(shifted.toString(), decoder.decompress(compressed));
+        assertTrue(compressed.length < shifted.length() / 2);
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void adapt_t2() {
+        AdaptiveHuffman h = new AdaptiveHuffman();
+        h.decompress(h.compress("AB"));
+    }
+    
+    // Escape Code Tests
+    // -----------------------------------------------
+    @Test
+    public void escape_t0() {
+        // Escaped Map: {B=0, C=10, A=110, escape=111}
+        Huffman h = new Huffman("ABBBCC", true);
+        assertTrue(h.hasEscape());
+        // 0000 0011 = 3 (message length = 3)
+        // 110 111 ("A", escape), 0000 0000 0101 1010 ('Z'), 0 ("B") + padding
+        byte[] compressed = {3, -36, 1, 104};
+        assertArrayEquals(compressed, h.compress("AZB"));
+        assertEquals("AZB", h.decompress(compressed));
+    }
+    
+    @Test
+    public void escape_t1() {
+        // 'D' follows the largest character, sharing the escape's symbol
+        Huffman h = new Huffman("ABBBCC", true).canonical();
+        Huffman copy = Huffman.fromHeader(h.header());
+        assertTrue(copy.hasEscape());
+        String message = "DABCD\uFFFF\u0000";
+        assertEquals(message, copy.decompress(h.compress(message)));
+        assertArrayEquals(h.compress(message), copy.compress(message));
+    }
+    
+    @Test
+    public void escape_t2() {
+        Huffman h = new Huffman(Histogram.of("ABBBCC\uFFFF"), 3, true);
+        assertTrue(h.isCanonical());
+        assertTrue(h.maxCodeLength() <= 3);
+        String message = "\uFFFFCBAxyz";
+        assertEquals(message, h.decompress(h.compress(message)));
+        assertEquals(message, Huffman.fromHeader(h.header()).decompress(h.compress(message)));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void escape_t3() {
+        new Huffman("ABBBCC").compress("AZB");
+    }
+    
+    
+    // Multi-Symbol Decoding Tests
+    // -----------------------------------------------
+    @Test
+    public void multi_t0() {
+        // Map: {B=0, C=10, A=11}; 12 bits hold 3 symbols per lookup
+        Huffman h = new Huffman("ABBBCC").withMultiSymbolDecoding();
+        assertSame(h, h.withMultiSymbolDecoding());
+        for (String message : new String[] {"", "A", "AB", "ABC", "ABBBCC", "CACACACACACB", "BBBBBBBBBBBBBBBBB"}) {
+            assertArrayEquals(new Huffman("ABBBCC").compress(message), h.compress(message));
+            assertEquals(message, h.decompress(h.compress(message)));
+        }
+    }
+    
+    @Test
+    public void multi_t1() {
+        // Fibonacci counts mix 1-bit codes with codes longer than the table
+        String corpus = fibonacciCorpus(16);
+        Huffman h = new Huffman(corpus, true).withMultiSymbolDecoding();
+        String message = new StringBuilder(corpus).reverse() + "abcdefghijklmnop\u20ACponmlkjihgfedcba";
+        assertEquals(message, h.decompress(h.compress(message)));
+    }
+    
+    
+    // Interleaved Stream Tests
+    // -----------------------------------------------
+    @Test
+    public void interleave_t0() {
+        Huffman h = new Huffman("ABBBCC");
+        // length 6, stream sizes {1, 1, 1}, then streams of 2 characters:
+        // 1000 0000 = -128 ("AB"), 0000 0000 = 0 ("BB"), 1111 0000 = -16 ("CC"), none
+        byte[] compressed = {6, 1, 1, 1, -128, 0, -16};
+        assertArrayEquals(compressed, h.compressInterleaved("ABBBCC"));
+        assertEquals("ABBBCC", h.decompressInterleaved(compressed));
+    }
+    
+    @Test
+    public void interleave_t1() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        // Every split of the length into quarters, then a long message
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            if (i < 100 || i == 19999) {
+                assertEquals(message.toString(), h.decompressInterleaved(h.compressInterleaved(message.toString())));
+            }
+            message.append("the lazy dog jumps over the quick brown fox ".charAt((7 * i) % 44));
+        }
+        // Escapes take the lookup-and-walk path
+        Huffman escaped = new Huffman("the quick brown fox jumps over the lazy dog", true);
+        String text = message + "\u20AC\u20AC\u20AC!";
+        assertEquals(text, escaped.decompressInterleaved(escaped.compressInterleaved(text)));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void interleave_t2() {
+        // The first stream claims more bytes than follow
+        new Huffman("ABBBCC").decompressInterleaved(new byte[] {6, 9, 1, 1, -128, 0, -16});
+    }
+    
+    
+    // Context Model Tests
+    // -----------------------------------------------
+    @Test
+    public void context_t0() {
+        // After 'A' always 'B' and after 'B' always 'A': contexts with a
+        // single follower get no table, so every character is coded order-0
+        ContextHuffman h = new ContextHuffman("ABABABABAB", 2);
+        // 0000 0100 = 4 (message length = 4), 0101 + padding = 80
+        byte[] compressed = {4, 80};
+        assertArrayEquals(compressed, h.compress("ABAB"));
+        assertEquals("ABAB", h.decompress(compressed));
+        assertEquals("ABBA", h.decompress(h.compress("ABBA")));
+        // After 'A' either 'B' or 'C' and after 'B' always 'A': only 'A'
+        // gets a table, and "AA" escapes from it to the order-0 code of 'A'
+        h = new ContextHuffman("ABACABACABAC", 2);
+        assertEquals("AABACCA", h.decompress(h.compress("AABACCA")));
+    }
+    
+    @Test
+    public void context_t1() {
+        String corpus = "the quick brown fox jumps over the lazy dog while the other quiet dogs "
+            + "watch the brown fox quickly jump over them and then the lazy dog sleeps";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            text.append(corpus).append(' ');
+        }
+        ContextHuffman context = new ContextHuffman(text.toString());
+        Huffman order0 = new Huffman(text.toString());
+        String message = "the lazy brown dog jumps over the quick fox then sleeps quietly";
+        assertEquals(message, context.decompress(context.compress(message)));
+        assertEquals(text.toString(), context.decompress(context.compress(text.toString())));
+        assertTrue(context.compress(text.toString()).length < 0.8 * order0.compress(text.toString()).length);
+        assertEquals("", context.decompress(context.compress("")));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void context_t2() {
+        new ContextHuffman("ABABABABAB").compress("ABC");
+    }
+    
+    
+    // LZ77 Tests
+    // -----------------------------------------------
+    @Test
+    public void lz_t0() {
+        LzHuffman h = new LzHuffman();
+        // "abcabcabcabc" is 3 literals and one overlapping match (9, 3)
+        String message = "abcabcabcabc";
+        assertEquals(message, h.decompress(h.compress(message)));
+        for (String text : new String[] {"", "a", "aa", "aaaa", "\u20AC\u20AC\u20AC\u20AC", "abcdefgh"}) {
+            assertEquals(text, h.decompress(h.compress(text)));
+        }
+    }
+    
+    @Test
+    public void lz_t1() {
+        // Repetitive JSON-like records compress far better than with order-0 codes
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("{\"id\":").append(i).append(",\"level\":\"")
+                .append(i % 3 == 0 ? "INFO" : "DEBUG").append("\",\"message\":\"request handled in ")
+                .append(i % 97).append("ms\"}\n");
+        }
+        String message = text.toString();
+        byte[] compressed = new LzHuffman().compress(message);
+        assertEquals(message, new LzHuffman().decompress(compressed));
+        assertTrue(compressed.length < new Huffman(message).compress(message).length / 4);
+        // Shorter chains trade ratio for speed but stay decodable by any instance
+        assertEquals(message, new LzHuffman().decompress(new LzHuffman(1).compress(message)));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void lz_t2() {
+        byte[] compressed = new LzHuffman().compress("abcabcabcabc");
+        // Claim one more byte than the tokens produce
+        compressed[0]++;
+        new LzHuffman().decompress(compressed);
+    }
+    
+    @Test
+    public void lz_t3() {
+        // Unpaired surrogates round trip as they do through Huffman
+        LzHuffman h = new LzHuffman();
+        for (String text : new String[] {"ab\uD800cd", "\uDC00\uD800", "x\uD83D\uDE00y\uD83D\uDE00", "end\uDBFF"}) {
+            assertEquals(text, h.decompress(h.compress(text)));
+        }
+    }
+    
+    
+    // Entropy Coder Tests
+    // -----------------------------------------------
+    @Test
+    public void rans_t0() {
+        RansCoder h = new RansCoder("ABBBCC");
+        for (String message : new String[] {"", "A", "ABBBCC", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC", "CBA"}) {
+            assertEquals(message, h.decompress(h.compress(message)));
+        }
+        // A single character costs one bit: 20 bits take 2 bytes past the state
+        RansCoder single = new RansCoder("aaaa");
+        assertEquals(1 + 4 + 2, single.compress("aaaaaaaaaaaaaaaaaaaa").length);
+        assertEquals("aaaaaaaaaaaaaaaaaaaa", single.decompress(single.compress("aaaaaaaaaaaaaaaaaaaa")));
+    }
+    
+    @Test
+    public void rans_t1() {
+        // 95% 'a' costs ~0.29 bits per character under rANS but 1 bit under Huffman
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            corpus.append(i % 20 == 0 ? (char) ('b' + i % 7) : 'a');
+        }
+        String message = corpus.toString();
+        EntropyCoder[] coders = {new RansCoder(message), new Huffman(message)};
+        for (EntropyCoder coder : coders) {
+            assertEquals(message, coder.decompress(coder.compress(message)));
+        }
+        assertTrue(coders[0].compress(message).length < 0.5 * coders[1].compress(message).length);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rans_t2() {
+        new RansCoder("ABBBCC").compress("ABD");
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rans_t3() {
+        // A single-character model still costs a bit per character, so a
+        // huge length cannot hide behind the 4-byte final state
+        new RansCoder("aaaa").decompress(new byte[] {-1, -1, -1, 63, 0, -128, 0, 0});
+    }
+    
+    
+    // Stored Form Tests
+    // -----------------------------------------------
+    @Test
+    public void stored_t0() {
+        // Escaped characters cost more than their raw 16 bits, so are stored:
+        // 0 marker, 3 characters, then "xyz" as big-endian UTF-16
+        Huffman h = new Huffman("ABBBCC", true);
+        byte[] compressed = {0, 3, 0, 'x', 0, 'y', 0, 'z'};
+        assertArrayEquals(compressed, h.compress("xyz"));
+        assertEquals("xyz", h.decompress(compressed));
+        // The empty message is stored too, so a leading 0 always marks the
+        // stored form; the lone 0 it was once written as still reads back
+        assertArrayEquals(new byte[] {0, 0}, h.compress(""));
+        assertEquals("", h.decompress(new byte[] {0, 0}));
+        assertEquals("", h.decompress(new byte[] {0}));
+        assertEquals("ABBBCCx", h.decompress(h.compress("ABBBCCx")));
+    }
+    
+    @Test
+    public void stored_t1() {
+        // Blocks are stored or coded independently
+        BlockContainer blocks = new BlockContainer(new Huffman("ABBBCC", true), 4);
+        String message = "ABBBxyzwCCBB\u20AC";
+        byte[] container = blocks.compress(message);
+        assertEquals(message, blocks.decompress(container));
+        assertEquals("xyzw", blocks.decompressBlock(container, 1));
+        assertEquals("BBxy", blocks.decompress(container, 2, 6));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void stored_t2() {
+        // 3 characters need 6 bytes
+        new Huffman("ABBBCC").decompress(new byte[] {0, 3, 0, 'x', 0, 'y', 0});
+    }
+    
+    
+    // Batch Tests
+    // -----------------------------------------------
+    @Test
+    public void batch_t0() {
+        Huffman h = new Huffman("ABBBCC").canonical();
+        List<String> messages = new ArrayList<>();
+        messages.add("ABC");
+        messages.add("");
+        messages.add("BB");
+        // header, 3 messages, 1-byte offsets {2, 3, 5}, then each message's
+        // length and bitstring
+        byte[] batch = {3, 65, 2, 1, 1, 1, 2, 3, 1, 2, 3, 5, 3, -104, 0, 2, 0};
+        assertArrayEquals(batch, HuffmanBatch.compress(h, messages));
+        HuffmanBatch reader = HuffmanBatch.open(batch);
+        assertEquals(3, reader.size());
+        assertEquals("BB", reader.get(2));
+        assertEquals("", reader.get(1));
+        assertEquals(messages, reader.getAll());
+    }
+    
+    @Test
+    public void batch_t1() {
+        String corpus = "the quick brown fox jumps over the lazy dog";
+        Huffman h = new Huffman(corpus, true).canonical();
+        List<String> messages = new ArrayList<>();
+        long separate = 0;
+        for (int i = 0; i < 300; i++) {
+            // Every 50th message is escaped throughout, so stored raw
+            String message = i % 50 == 0 ? "\u20AC\u20AC" : corpus.substring(i % 20, 20 + i % 23);
+            messages.add(message);
+            separate += h.header().length + h.compress(message).length;
+        }
+        byte[] batch = HuffmanBatch.compress(h, messages);
+        assertTrue(batch.length < separate / 4);
+        HuffmanBatch reader = HuffmanBatch.open(batch);
+        for (int i = 299; i >= 0; i -= 7) {
+            assertEquals(messages.get(i), reader.get(i));
+        }
+        assertEquals(messages, reader.getAll());
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void batch_t2() {
+        HuffmanBatch.compress(new Huffman("ABBBCC"), new ArrayList<String>());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void batch_t3() {
+        // Offsets run past the end of the batch
+        HuffmanBatch.open(new byte[] {3, 65, 2, 1, 1, 1, 2, 3, 1, 2, 3, 9, 3, -104, 0, 2, 0});
+    }
+    
+    @Test
+    public void batch_t4() {
+        // Message 1 ends past the batch
+        HuffmanBatch middle = HuffmanBatch.open(new byte[] {3, 65, 2, 1, 1, 1, 2, 3, 1, 2, 99, 5, 3, -104, 0, 2, 0});
+        try {
+            middle.get(1);
+            fail();
+        } catch (IllegalArgumentException e) {}
+        // Message 0 is cut inside its length
+        HuffmanBatch cut = HuffmanBatch.open(new byte[] {3, 65, 2, 1, 1, 1, 2, 1, 1, 1, -128});
+        try {
+            cut.get(0);
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    
+    // Buffer API Tests
+    // -----------------------------------------------
+    @Test
+    public void buffer_t0() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        String message = "the lazy fox";
+        ByteBuffer compressed = ByteBuffer.allocateDirect(64);
+        assertEquals(h.compressedSize(message), h.compress(message, compressed));
+        compressed.flip();
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.duplicate().get(bytes);
+        assertArrayEquals(h.compress(message), bytes);
+        CharBuffer direct = ByteBuffer.allocateDirect(64).asCharBuffer();
+        assertEquals(message.length(), h.decompress(compressed, direct));
+        assertFalse(compressed.hasRemaining());
+        direct.flip();
+        assertEquals(message, direct.toString());
+    }
+    
+    @Test
+    public void buffer_t1() {
+        // The stored form, read from and written to positioned heap buffers
+        Huffman h = new Huffman("ABBBCC", true);
+        CharBuffer src = CharBuffer.wrap("--xyz").position(2);
+        ByteBuffer compressed = ByteBuffer.allocate(16).position(3);
+        assertEquals(8, h.compress(src, compressed));
+        assertFalse(src.hasRemaining());
+        compressed.flip().position(3);
+        CharBuffer dst = CharBuffer.allocate(8).position(1);
+        assertEquals(3, h.decompress(compressed, dst));
+        assertEquals("xyz", new String(dst.array(), 1, 3));
+        assertEquals(4, dst.position());
+    }
+    
+    @Test
+    public void buffer_t2() {
+        Huffman h = new Huffman("ABBBCC");
+        ByteBuffer compressed = ByteBuffer.wrap(h.compress("ABBBCCCC"));
+        CharBuffer dst = CharBuffer.allocate(7);
+        try {
+            h.decompress(compressed, dst);
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(0, compressed.position());
+            assertEquals(0, dst.position());
+        }
+        try {
+            h.compress("ABBBCCCC", ByteBuffer.allocate(2));
+            fail();
+        } catch (BufferOverflowException e) {}
+    }
+    
+    @Test
+    public void buffer_t3() {
+        // Coded, empty and stored messages read back to back from one buffer
+        Huffman h = new Huffman("ABBBCC", true).withMultiSymbolDecoding();
+        String[] messages = {"ABBBCCCCBBBA", "", "xyz", "CAB"};
+        ByteBuffer compressed = ByteBuffer.allocateDirect(64);
+        int written = 0;
+        for (String message : messages) {
+            written += h.compress(message, compressed);
+        }
+        compressed.flip();
+        assertEquals(written, compressed.remaining());
+        CharBuffer direct = ByteBuffer.allocateDirect(64).asCharBuffer();
+        for (String message : messages) {
+            int start = compressed.position();
+            assertEquals(message.length(), h.decompress(compressed, direct));
+            assertEquals(h.compressedSize(message), compressed.position() - start);
+        }
+        direct.flip();
+        assertEquals(String.join("", messages), direct.toString());
+    }
+    
+    @Test
+    public void buffer_t4() {
+        // A truncated message moves neither buffer
+        Huffman h = new Huffman("ABBBCC");
+        ByteBuffer[] truncated = {ByteBuffer.wrap(new byte[] {-84}), ByteBuffer.wrap(new byte[] {0, 3, 0, 'x'})};
+        for (ByteBuffer src : truncated) {
+            CharBuffer dst = CharBuffer.allocate(8);
+            try {
+                h.decompress(src, dst);
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals(0, src.position());
+                assertEquals(0, dst.position());
+            }
+        }
+    }
+    
+    
+    // Streaming Tests
+    // -----------------------------------------------
+    @Test
+    public void stream_t0() throws IOException {
+        Huffman h = new Huffman("ABBBCC");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new HuffmanWriter(h, out)) {
+            writer.write("ABBBCC");
+        }
+        // frame: 6 characters in 2 bytes {-121, -128}, then end marker 0
+        byte[] compressed = {6, 2, -121, -128, 0};
+        assertArrayEquals(compressed, out.toByteArray());
+    }
+    
+    @Test
+    public void stream_t1() throws IOException {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 5 * HuffmanWriter.FRAME_SIZE + 17) {
+            message.append("the lazy dog jumps over the quick brown fox ");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new HuffmanWriter(h, out)) {
+            for (int i = 0; i < message.length(); i += 1000) {
+                writer.write(message.substring(i, Math.min(message.length(), i + 1000)));
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        try (Reader reader = new HuffmanReader(h, new ByteArrayInputStream(out.toByteArray()))) {
+            char[] buffer = new char[3000];
+            for (int n; (n = reader.read(buffer)) >= 0; ) {
+                result.append(buffer, 0, n);
+            }
+        }
+        assertEquals(message.toString(), result.toString());
+    }
+    
+    @Test(expected = EOFException.class)
+    public void stream_t2() throws IOException {
+        Huffman h = new Huffman("ABBBCC");
+        // Missing the end marker
+        byte[] compressed = {6, 2, -121, -128};
+        try (Reader reader = new HuffmanReader(h, new ByteArrayInputStream(compressed))) {
+            while (reader.read() >= 0) {}
+        }
+    }
+    
+    @Test
+    public void stream_t3() throws IOException {
+        // Whole frames of escaped characters, which cost more than any code
+        Huffman h = new Huffman("ABBBCC", true);
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 2 * HuffmanWriter.FRAME_SIZE + 5; i++) {
+            message.append((char) ('\u4E00' + i % 500));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new HuffmanWriter(h, out)) {
+            writer.write(message.toString());
+        }
+        StringBuilder result = new StringBuilder();
+        try (Reader reader = new HuffmanReader(h, new ByteArrayInputStream(out.toByteArray()))) {
+            for (int c; (c = reader.read()) >= 0; ) {
+                result.append((char) c);
+            }
+        }
+        assertEquals(message.toString(), result.toString());
+    }
+    
+    @Test
+    public void stream_t4() throws IOException {
+        Huffman h = new Huffman("ABBBCC");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new HuffmanWriter(h, out)) {
+            writer.write("ABB");
+            // Each rejected write leaves the buffered frame untouched
+            try {
+                writer.write("BCD");
+                fail();
+            } catch (IllegalArgumentException e) {}
+            try {
+                writer.write('D');
+                fail();
+            } catch (IllegalArgumentException e) {}
+            writer.write("BCC".toCharArray());
+        }
+        assertArrayEquals(new byte[] {6, 2, -121, -128, 0}, out.toByteArray());
+    }
+    
+    
+    // Block Container Tests
+    // -----------------------------------------------
+    @Test
+    public void block_t0() {
+        BlockContainer blocks = new BlockContainer(new Huffman("ABBBCC"), 4);
+        // length 6, block size 4, block ends {1, 2}, then 2 blocks:
+        // 1000 0000 = -128 ("ABBB"), 1111 0000 = -16 ("CC")
+        byte[] container = {6, 4, 0, 0, 0, 1, 0, 0, 0, 2, -128, -16};
+        assertArrayEquals(container, blocks.compress("ABBBCC"));
+        assertEquals("ABBBCC", blocks.decompress(container));
+        assertEquals("CC", blocks.decompressBlock(container, 1));
+    }
+    
+    @Test
+    public void block_t1() {
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        BlockContainer blocks = new BlockContainer(h, 1000);
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 25500) {
+            message.append("the lazy dog jumps over the quick brown fox ");
+        }
+        String original = message.toString();
+        byte[] container = blocks.compress(original);
+        assertEquals(26, blocks.blockCount(container));
+        assertEquals(original, blocks.decompress(container));
+        assertEquals(original.substring(1000, 2000), blocks.decompressBlock(container, 1));
+        assertEquals(original.substring(2999, 7001), blocks.decompress(container, 2999, 7001));
+        assertEquals(original.substring(25000), blocks.decompress(container, 25000, original.length()));
+    }
+    
+    @Test
+    public void block_t2() {
+        BlockContainer blocks = new BlockContainer(new Huffman("ABBBCC"), 4);
+        // Block 0's end moved past the container, then behind the data start
+        byte[][] corrupted = {{6, 4, 0, 0, 0, 9, 0, 0, 0, 2, -128, -16}, {6, 4, -1, -1, -1, -1, 0, 0, 0, 2, -128, -16}};
+        for (byte[] container : corrupted) {
+            for (int block = 0; block < 2; block++) {
+                try {
+                    blocks.decompressBlock(container, block);
+                    fail();
+                } catch (IllegalArgumentException e) {}
+            }
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void block_t3() {
+        // 2^30 characters cannot fit in a single byte of data
+        byte[] container = {-128, -128, -128, -128, 4, -128, -128, -128, -128, 4, 0, 0, 0, 1, 0};
+        new BlockContainer(new Huffman("ABBBCC")).decompress(container);
+    }
+    
+    
+    // Codec Registry Tests
+    // -----------------------------------------------
+    @Test
+    public void registry_t0() {
+        // Same characters in the same proportions share one codec
+        CodecRegistry registry = new CodecRegistry();
+        Huffman h = registry.codecFor("ABBBCC");
+        assertSame(h, registry.codecFor("CCBBBA"));
+        assertSame(h, registry.codecFor("ABBBCCABBBCC"));
+        assertNotSame(h, registry.codecFor("ABBBC"));
+        assertNotSame(h, registry.codecFor("ABBBCD"));
+        assertEquals(3, registry.size());
+        assertEquals("CCBBBA", h.decompress(h.compress("CCBBBA")));
+    }
+    
+    @Test
+    public void registry_t1() {
+        // The least recently used codec is evicted first
+        CodecRegistry registry = new CodecRegistry(2);
+        Huffman ab = registry.codecFor("AB");
+        Huffman cd = registry.codecFor("CD");
+        assertSame(ab, registry.codecFor("BA"));
+        registry.codecFor("EF");
+        assertEquals(2, registry.size());
+        assertSame(ab, registry.codecFor("AB"));
+        assertNotSame(cd, registry.codecFor("CD"));
+    }
+    
+    
+    // Retraining Tests
+    // -----------------------------------------------
+    @Test
+    public void retrain_t0() {
+        // Seed codes give C 2 bits; a C-heavy stream earns a rebuild
+        RetrainingHuffman h = new RetrainingHuffman("AABC", 1, Integer.MAX_VALUE, 0.05, Runnable::run);
+        byte[] old = h.compress("CCCCCCCCCA");
+        assertEquals(0, old[0]);
+        for (int i = 0; i < 10; i++) {
+            h.compress("CCCCCCCCCA");
+        }
+        assertTrue(h.retrain());
+        assertEquals(1, h.version());
+        byte[] current = h.compress("CCCCCCCCCA");
+        assertEquals(1, current[0]);
+        assertTrue(current.length < old.length);
+        assertEquals("CCCCCCCCCA", h.decompress(old));
+        assertEquals("CCCCCCCCCA", h.decompress(current));
+        // Nothing left to gain
+        assertFalse(h.retrain());
+        assertEquals(1, h.version());
+    }
+    
+    @Test
+    public void retrain_t1() {
+        // Rebuilds run on their own once enough characters are sampled
+        RetrainingHuffman h = new RetrainingHuffman("AABC", 2, 100, 0.05, Runnable::run);
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            payloads.add(h.compress("CCCCCCCCCB"));
+        }
+        assertTrue(h.version() > 0);
+        for (byte[] payload : payloads) {
+            assertEquals("CCCCCCCCCB", h.decompress(payload));
+        }
+    }
+    
+    @Test
+    public void retrain_t3() {
+        // Characters missing from the seed are escaped until a rebuild codes them
+        RetrainingHuffman h = new RetrainingHuffman("AABC", 1, Integer.MAX_VALUE, 0.05, Runnable::run);
+        byte[] old = h.compress("XYZXYZXYZ");
+        assertEquals("XYZXYZXYZ", h.decompress(old));
+        assertTrue(h.retrain());
+        byte[] current = h.compress("XYZXYZXYZ");
+        assertTrue(current.length < old.length);
+        assertEquals("XYZXYZXYZ", h.decompress(current));
+        assertEquals("XYZXYZXYZ", h.decompress(old));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void retrain_t2() {
+        // Version 5 was never built
+        new RetrainingHuffman("AABC").decompress(new byte[] {5, 1, 0});
+    }
+    
+    @Test
+    public void retrain_t4() {
+        // Every version is kept, and persisted headers survive a restart
+        RetrainingHuffman h = new RetrainingHuffman("AB", 1, Integer.MAX_VALUE, 0.05, Runnable::run);
+        List<byte[]> payloads = new ArrayList<>(), headers = new ArrayList<>();
+        String[] messages = new String[20];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = i % 2 == 0 ? "AAAAAAAAAAAAB" : "BBBBBBBBBBBBA";
+            payloads.add(h.compress(messages[i]));
+            headers.add(h.header(h.version()));
+            assertTrue(h.retrain());
+        }
+        assertEquals(messages[0], h.decompress(payloads.get(0)));
+        RetrainingHuffman restarted = new RetrainingHuffman("AB", 1, Integer.MAX_VALUE, 0.05, Runnable::run);
+        for (int i = 0; i < messages.length; i++) {
+            restarted.register(i, headers.get(i));
+        }
+        assertEquals(messages.length - 1, restarted.version());
+        for (int i = 0; i < messages.length; i++) {
+            assertEquals(messages[i], restarted.decompress(payloads.get(i)));
+        }
+        assertTrue(restarted.evict(0));
+        try {
+            restarted.decompress(payloads.get(0));
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    @Test
+    public void retrain_t5() {
+        // A rejected rebuild does not block the next one
+        RetrainingHuffman h = new RetrainingHuffman("AABC", 1, 1, 0.05, task -> {
+            throw new RejectedExecutionException();
+        });
+        h.compress("CCCCCCCCCA");
+        assertTrue(h.retrain());
+    }
+    
+    @Test
+    public void retrain_t6() {
+        // Truncated version and length varints
+        RetrainingHuffman h = new RetrainingHuffman("AABC");
+        for (byte[] truncated : new byte[][] {{}, {-128}, {0}, {0, -128}}) {
+            try {
+                h.decompress(truncated);
+                fail();
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+    
+    
+    // Concurrency Tests
+    // -----------------------------------------------
+    @Test
+    public void shared_t0() throws Exception {
+        // One instance serves every thread; each round trips its own messages
+        Huffman h = new Huffman("the quick brown fox jumps over the lazy dog");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 64; t++) {
+                final int seed = t;
+                results.add(pool.submit(() -> {
+                    StringBuilder text = new StringBuilder();
+                    for (int i = 0; i < 400; i++) {
+                        text.append("the lazy dog ".charAt((seed + 7 * i) % 13));
+                    }
+                    String messages = text.toString();
+                    for (int i = 0; i < 200; i++) {
+                        String message = messages.substring(i, i + 1 + (seed + i) % 200);
+                        if (!message.equals(h.decompress(h.compress(message)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,165 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Writer that Huffman compresses the characters written to it onto an
+ * underlying OutputStream, using a fixed amount of memory regardless of how
+ * much text passes through. Characters are buffered into frames of at most
+ * FRAME_SIZE characters, each written as (1) a varint character count,
+ * (2) a varint byte count, and (3) that many bytes of 0-padded bitstring.
+ * Closing the writer ends the stream with a character count of 0. The
+ * result is read back by a HuffmanReader using the same Huffman codes.
+ * <p>
+ * Characters are checked against the codes as they are written, so a
+ * character that cannot be coded is rejected by the write that passes it,
+ * leaving the buffered frame, and the stream, intact.
+ */
+public class HuffmanWriter extends Writer {
+
+    /**
+     * Most characters encoded into a single frame.
+     */
+    static final int FRAME_SIZE = 8192;
+
+    private final Huffman codec;
+    private final OutputStream out;
+    private final StringBuilder frame = new StringBuilder(FRAME_SIZE);
+    private final byte[] buffer;
+    private long frameBits;
+    private boolean closed;
+
+    /**
+     * Creates a HuffmanWriter compressing onto the given stream.
+     * @param codec Huffman codes to compress with
+     * @param out Destination of the compressed frames
+     */
+    HuffmanWriter (Huffman codec, OutputStream out) {
+        this.codec = codec;
+        this.out = out;
+        this.buffer = new byte[frameCapacity(codec)];
+    }
+
+    /**
+     * @param codec Huffman codes of a stream
+     * @return Most bytes any frame of the stream can occupy
+     */
+    static int frameCapacity (Huffman codec) {
+        return 2 * Varint.MAX_SIZE + (FRAME_SIZE * codec.maxCharacterBits() + 7) / 8;
+    }
+
+    /**
+     * @throws IllegalArgumentException if c did not appear in the codec's
+     *         corpus and the codec has no escape code
+     */
+    @Override
+    public void write (int c) throws IOException {
+        ensureOpen();
+        int bits = codec.characterBits((char) c);
+        if (bits == 0) {
+            throw new IllegalArgumentException("Character '" + (char) c + "' does not appear in the corpus");
+        }
+        frameBits += bits;
+        frame.append((char) c);
+        if (frame.length() == FRAME_SIZE) {
+            writeFrame();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a character did not appear in the
+     *         codec's corpus and the codec has no escape code, in which case
+     *         the characters of the frame it falls in are not written
+     */
+    @Override
+    public void write (char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int chunk = Math.min(len, FRAME_SIZE - frame.length());
+            frameBits += codec.encodedBits(CharBuffer.wrap(cbuf, off, chunk));
+            frame.append(cbuf, off, chunk);
+            off += chunk;
+            len -= chunk;
+            if (frame.length() == FRAME_SIZE) {
+                writeFrame();
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a character did not appear in the
+     *         codec's corpus and the codec has no escape code, in which case
+     *         the characters of the frame it falls in are not written
+     */
+    @Override
+    public void write (String str, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int chunk = Math.min(len, FRAME_SIZE - frame.length());
+            frameBits += codec.encodedBits(CharBuffer.wrap(str, off, off + chunk));
+            frame.append(str, off, off + chunk);
+            off += chunk;
+            len -= chunk;
+            if (frame.length() == FRAME_SIZE) {
+                writeFrame();
+            }
+        }
+    }
+
+    /**
+     * Writes any buffered characters as a (possibly short) frame and flushes
+     * the underlying stream.
+     */
+    @Override
+    public void flush () throws IOException {
+        ensureOpen();
+        writeFrame();
+        out.flush();
+    }
+
+    /**
+     * Writes any buffered characters and the end-of-stream marker, then
+     * closes the underlying stream, which is closed even if writing fails.
+     */
+    @Override
+    public void close () throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeFrame();
+            out.write(0);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Compresses the buffered characters, if any, as one frame. The
+     * characters were validated, and their bits counted, as they were
+     * written.
+     */
+    private void writeFrame () throws IOException {
+        if (frame.length() == 0) {
+            return;
+        }
+        int dataSize = (int) ((frameBits + 7) >>> 3);
+        int offset = Varint.write(frame.length(), buffer, 0);
+        offset = Varint.write(dataSize, buffer, offset);
+        int end = codec.encode(frame, buffer, offset);
+        out.write(buffer, 0, end);
+        frame.setLength(0);
+        frameBits = 0;
+    }
+
+    private void ensureOpen () throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+}
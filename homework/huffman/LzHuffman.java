@@ -0,0 +1,393 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LzHuffman instances compress text in two stages, as DEFLATE does: a
+ * hash-chain LZ77 match finder turns the message's UTF-8 bytes into literals
+ * and (length, distance) back-references into the previous WINDOW bytes, and
+ * the tokens are then Huffman coded with two canonical tables built for the
+ * message, one for literals / lengths and one for distances. Repeated
+ * substrings, which order-0 Huffman codes cannot exploit, so cost a few bits
+ * per repetition.
+ * <p>
+ * The token alphabets follow DEFLATE: literal / length symbols 0-255 are
+ * bytes, 256 ends the message and 257-285 are match lengths 3-258, and the
+ * 30 distance symbols cover distances 1-32768; both kinds of symbols may be
+ * followed by extra bits refining the value. Codes are written MSB-first
+ * like every other codec of this package, so the output is not a DEFLATE
+ * stream.
+ * <p>
+ * Messages are converted to bytes as WTF-8: UTF-8, except that a surrogate
+ * without its other half is written as the 3-byte sequence of its own code
+ * unit rather than replaced, so that every String round trips, as through
+ * the other coders of this package. Instances are immutable and safe to
+ * share between threads.
+ */
+public class LzHuffman implements EntropyCoder {
+
+    /**
+     * Farthest back a match may start, in bytes.
+     */
+    static final int WINDOW = 1 << 15;
+
+    static final int MIN_MATCH = 3, MAX_MATCH = 258;
+
+    /**
+     * Longest code allowed in either table, as in DEFLATE.
+     */
+    static final int MAX_CODE_LENGTH = 15;
+
+    /**
+     * Number of chained candidates examined per position when no limit is
+     * given; more find longer matches at the cost of speed.
+     */
+    static final int DEFAULT_MAX_CHAIN = 32;
+
+    static final int END_OF_MESSAGE = 256;
+    private static final int LITERAL_LENGTH_SYMBOLS = 286, DISTANCE_SYMBOLS = 30;
+
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private static final int[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+    };
+    private static final int[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+    private static final int HASH_BITS = 15;
+
+    private final int maxChain;
+
+    /**
+     * Creates an LzHuffman instance examining DEFAULT_MAX_CHAIN candidates
+     * per position.
+     */
+    LzHuffman () {
+        this(DEFAULT_MAX_CHAIN);
+    }
+
+    /**
+     * Creates an LzHuffman instance examining up to maxChain candidates per
+     * position.
+     * @param maxChain Number of chained candidates examined per position
+     * @throws IllegalArgumentException if maxChain is not positive
+     */
+    LzHuffman (int maxChain) {
+        if (maxChain < 1) {
+            throw new IllegalArgumentException("Maximum chain length must be positive");
+        }
+        this.maxChain = maxChain;
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given message.
+     * @param message String representing the message to compress
+     * @return {@code byte[]} formatted as 4 components: (1) the number of
+     *         WTF-8 bytes in the message as a varint, (2) the literal /
+     *         length and (3) the distance code lengths, each formatted as
+     *         Huffman.header, (4) the coded tokens ending with
+     *         END_OF_MESSAGE, 0-padded to a whole byte
+     */
+    public byte[] compress (String message) {
+        byte[] data = toWtf8(message);
+        int[] tokens = new int[data.length + 1];
+        int tokenCount = findMatches(data, tokens);
+
+        int[] literalLengthCounts = new int[LITERAL_LENGTH_SYMBOLS];
+        int[] distanceCounts = new int[DISTANCE_SYMBOLS];
+        for (int i = 0; i < tokenCount; i++) {
+            int token = tokens[i];
+            if (token < 256) {
+                literalLengthCounts[token]++;
+            } else {
+                literalLengthCounts[257 + lengthSymbol(token >>> 16)]++;
+                distanceCounts[distanceSymbol(token & 0xFFFF)]++;
+            }
+        }
+        literalLengthCounts[END_OF_MESSAGE]++;
+        CodeTable literalLengths = CodeTable.canonical(CodeLengths.limited(literalLengthCounts, MAX_CODE_LENGTH));
+        CodeTable distances = CodeTable.canonical(CodeLengths.limited(distanceCounts, MAX_CODE_LENGTH));
+
+        long bits = 0;
+        for (int symbol = 0; symbol < LITERAL_LENGTH_SYMBOLS; symbol++) {
+            int extra = symbol > 256 ? LENGTH_EXTRA[symbol - 257] : 0;
+            bits += (long) literalLengthCounts[symbol] * (literalLengths.length(symbol) + extra);
+        }
+        for (int symbol = 0; symbol < DISTANCE_SYMBOLS; symbol++) {
+            bits += (long) distanceCounts[symbol] * (distances.length(symbol) + DISTANCE_EXTRA[symbol]);
+        }
+        byte[] literalLengthHeader = literalLengths.header();
+        byte[] distanceHeader = distances.header();
+        int headerSize = Varint.size(data.length) + literalLengthHeader.length + distanceHeader.length;
+        long size = headerSize + ((bits + 7) >>> 3);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+        }
+
+        byte[] answer = new byte[(int) size];
+        int offset = Varint.write(data.length, answer, 0);
+        System.arraycopy(literalLengthHeader, 0, answer, offset, literalLengthHeader.length);
+        offset += literalLengthHeader.length;
+        System.arraycopy(distanceHeader, 0, answer, offset, distanceHeader.length);
+        offset += distanceHeader.length;
+        BitWriter writer = new BitWriter(answer, offset);
+        for (int i = 0; i < tokenCount; i++) {
+            int token = tokens[i];
+            if (token < 256) {
+                writer.write(literalLengths.code(token), literalLengths.length(token));
+                continue;
+            }
+            int length = token >>> 16, distance = token & 0xFFFF;
+            int lengthSymbol = lengthSymbol(length), distanceSymbol = distanceSymbol(distance);
+            writer.write(literalLengths.code(257 + lengthSymbol), literalLengths.length(257 + lengthSymbol));
+            writer.write(length - LENGTH_BASE[lengthSymbol], LENGTH_EXTRA[lengthSymbol]);
+            writer.write(distances.code(distanceSymbol), distances.length(distanceSymbol));
+            writer.write(distance - DISTANCE_BASE[distanceSymbol], DISTANCE_EXTRA[distanceSymbol]);
+        }
+        writer.write(literalLengths.code(END_OF_MESSAGE), literalLengths.length(END_OF_MESSAGE));
+        writer.finish();
+        return answer;
+    }
+
+    /**
+     * Splits data into LZ77 tokens, greedily taking the longest match found
+     * among up to maxChain earlier positions sharing the hash of the next
+     * MIN_MATCH bytes.
+     * @param data The bytes to tokenize
+     * @param tokens Destination of the tokens: a byte value for a literal,
+     *        or (length << 16) | distance for a match
+     * @return Number of tokens written
+     */
+    private int findMatches (byte[] data, int[] tokens) {
+        int[] head = new int[1 << HASH_BITS];
+        int[] previous = new int[WINDOW];
+        Arrays.fill(head, -1);
+        int count = 0, i = 0;
+        while (i < data.length) {
+            int bestLength = 0, bestDistance = 0;
+            if (i + MIN_MATCH <= data.length) {
+                int limit = Math.min(MAX_MATCH, data.length - i);
+                int candidate = head[hash(data, i)];
+                for (int chain = 0; candidate >= 0 && i - candidate <= WINDOW && chain < maxChain; chain++) {
+                    if (data[candidate + bestLength] == data[i + bestLength]) {
+                        int length = 0;
+                        while (length < limit && data[candidate + length] == data[i + length]) {
+                            length++;
+                        }
+                        if (length > bestLength) {
+                            bestLength = length;
+                            bestDistance = i - candidate;
+                            if (length == limit) {
+                                break;
+                            }
+                        }
+                    }
+                    int next = previous[candidate & (WINDOW - 1)];
+                    // Slots overwritten by newer positions end the chain
+                    candidate = next < candidate ? next : -1;
+                }
+            }
+            int advance = bestLength >= MIN_MATCH ? bestLength : 1;
+            tokens[count++] = advance > 1 ? (bestLength << 16) | bestDistance : data[i] & 0xFF;
+            for (int end = i + advance; i < end; i++) {
+                if (i + MIN_MATCH <= data.length) {
+                    int h = hash(data, i);
+                    previous[i & (WINDOW - 1)] = head[h];
+                    head[h] = i;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Converts a message to WTF-8, i.e., UTF-8 that also carries unpaired
+     * surrogates, each as the 3-byte sequence of its code unit.
+     */
+    private static byte[] toWtf8 (String message) {
+        byte[] bytes = new byte[3 * message.length()];
+        int size = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xC0 | c >>> 6);
+                bytes[size++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < message.length()
+                    && Character.isLowSurrogate(message.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, message.charAt(++i));
+                bytes[size++] = (byte) (0xF0 | codePoint >>> 18);
+                bytes[size++] = (byte) (0x80 | codePoint >>> 12 & 0x3F);
+                bytes[size++] = (byte) (0x80 | codePoint >>> 6 & 0x3F);
+                bytes[size++] = (byte) (0x80 | codePoint & 0x3F);
+            } else {
+                bytes[size++] = (byte) (0xE0 | c >>> 12);
+                bytes[size++] = (byte) (0x80 | c >>> 6 & 0x3F);
+                bytes[size++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Converts WTF-8 written by toWtf8 back to a String.
+     * @throws IllegalArgumentException if data is not well-formed WTF-8
+     */
+    private static String fromWtf8 (byte[] data) {
+        char[] chars = new char[data.length];
+        int size = 0;
+        for (int i = 0; i < data.length; ) {
+            int lead = data[i++] & 0xFF;
+            // Sequence length, first bits and smallest value it may encode
+            int trailing, value, min;
+            if (lead < 0x80) {
+                chars[size++] = (char) lead;
+                continue;
+            } else if (lead >= 0xC0 && lead < 0xE0) {
+                trailing = 1;
+                value = lead & 0x1F;
+                min = 0x80;
+            } else if (lead >= 0xE0 && lead < 0xF0) {
+                trailing = 2;
+                value = lead & 0x0F;
+                min = 0x800;
+            } else if (lead >= 0xF0 && lead < 0xF5) {
+                trailing = 3;
+                value = lead & 0x07;
+                min = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            } else {
+                throw new IllegalArgumentException("Malformed WTF-8");
+            }
+            if (i + trailing > data.length) {
+                throw new IllegalArgumentException("Malformed WTF-8");
+            }
+            for (int end = i + trailing; i < end; i++) {
+                if ((data[i] & 0xC0) != 0x80) {
+                    throw new IllegalArgumentException("Malformed WTF-8");
+                }
+                value = value << 6 | data[i] & 0x3F;
+            }
+            if (value < min || value > Character.MAX_CODE_POINT) {
+                throw new IllegalArgumentException("Malformed WTF-8");
+            }
+            size += Character.toChars(value, chars, size);
+        }
+        return new String(chars, 0, size);
+    }
+
+    private static int hash (byte[] data, int i) {
+        int key = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+        return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * @param length Match length in [MIN_MATCH, MAX_MATCH]
+     * @return Index of the length's symbol past 257
+     */
+    private static int lengthSymbol (int length) {
+        int n = length - MIN_MATCH;
+        if (length == MAX_MATCH) {
+            return LENGTH_BASE.length - 1;
+        }
+        if (n < 8) {
+            return n;
+        }
+        int log = 31 - Integer.numberOfLeadingZeros(n);
+        return 4 * (log - 1) + ((n >>> (log - 2)) & 3);
+    }
+
+    /**
+     * @param distance Match distance in [1, WINDOW]
+     * @return The distance's symbol
+     */
+    private static int distanceSymbol (int distance) {
+        int n = distance - 1;
+        if (n < 4) {
+            return n;
+        }
+        int log = 31 - Integer.numberOfLeadingZeros(n);
+        return 2 * log + ((n >>> (log - 1)) & 1);
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses a message written by compress.
+     * @param compressedMsg {@code byte[]} formatted as described in compress
+     * @return Decompressed String representation of the message
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    public String decompress (byte[] compressedMsg) {
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        long size = Varint.read(src);
+        CodeTable literalLengths = CodeTable.readHeader(src);
+        CodeTable distances = CodeTable.readHeader(src);
+        if (literalLengths.size() > LITERAL_LENGTH_SYMBOLS || distances.size() > DISTANCE_SYMBOLS
+                || literalLengths.maxLength() > MAX_CODE_LENGTH || distances.maxLength() > MAX_CODE_LENGTH
+                || literalLengths.escape() >= 0 || distances.escape() >= 0) {
+            throw new IllegalArgumentException("Malformed LZ77 code lengths");
+        }
+        // A match of MAX_MATCH bytes takes at least 2 bits
+        if (size > MAX_MATCH * 4L * src.remaining() || size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        DecodeTable literalLengthDecoder = new DecodeTable(literalLengths, FlatTrie.of(literalLengths));
+        DecodeTable distanceDecoder = new DecodeTable(distances, FlatTrie.of(distances));
+        BitReader reader = new BitReader(compressedMsg, src.position(), compressedMsg.length);
+        byte[] data = new byte[(int) size];
+        int i = 0;
+        while (i < data.length) {
+            int symbol = literalLengthDecoder.next(reader);
+            if (symbol < 256) {
+                data[i++] = (byte) symbol;
+                continue;
+            }
+            if (symbol == END_OF_MESSAGE) {
+                break;
+            }
+            int length = LENGTH_BASE[symbol - 257] + extraBits(reader, LENGTH_EXTRA[symbol - 257]);
+            int distanceSymbol = distanceDecoder.next(reader);
+            int distance = DISTANCE_BASE[distanceSymbol] + extraBits(reader, DISTANCE_EXTRA[distanceSymbol]);
+            if (distance > i || length > data.length - i) {
+                throw new IllegalArgumentException("Match reaches outside the message");
+            }
+            // Byte by byte: the match may overlap the bytes it produces
+            for (int end = i + length; i < end; i++) {
+                data[i] = data[i - distance];
+            }
+        }
+        if (i < data.length || literalLengthDecoder.next(reader) != END_OF_MESSAGE) {
+            throw new IllegalArgumentException("Bitstring does not end where the message does");
+        }
+        return fromWtf8(data);
+    }
+
+    private static int extraBits (BitReader reader, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        reader.refill();
+        int bits = reader.peek(count);
+        reader.skip(count);
+        return bits;
+    }
+
+}
@@ -0,0 +1,99 @@
+package huffman;
+
+/**
+ * Lookup table decoder that resolves several short codes per lookup. The
+ * next TABLE_BITS bits of the input index an array whose entry holds every
+ * whole code those bits begin with, up to MAX_SYMBOLS of them, together with
+ * their number and the bits they take, so text dominated by 2-4 bit codes
+ * decodes three characters per memory access. Entries packing no symbol
+ * (a code longer than what is left of the table's width, or the escape) and
+ * the last few characters of a message fall back to a DecodeTable.
+ */
+final class MultiSymbolTable {
+
+    /**
+     * Width of the table; 2^12 entries of 8 bytes keep it within L1.
+     */
+    static final int TABLE_BITS = 12;
+
+    /**
+     * Most symbols packed into one entry, 16 bits each.
+     */
+    static final int MAX_SYMBOLS = 3;
+
+    private static final int COUNT_SHIFT = 48, BITS_SHIFT = 52;
+
+    private final long[] entries = new long[1 << TABLE_BITS];
+    private final DecodeTable fallback;
+
+    /**
+     * Creates the multi-symbol table for the given codes.
+     * @param table The codes to decode
+     * @param fallback Single-symbol decoder of the same codes
+     */
+    MultiSymbolTable (CodeTable table, DecodeTable fallback) {
+        this.fallback = fallback;
+        // Single-symbol entries (symbol << 8) | length for every short code
+        int[] single = new int[1 << TABLE_BITS];
+        for (int symbol = 0; symbol < table.size(); symbol++) {
+            int length = table.length(symbol);
+            if (length == 0 || length > TABLE_BITS || symbol > Character.MAX_VALUE || symbol == table.escape()) {
+                continue;
+            }
+            int first = (int) table.code(symbol) << (TABLE_BITS - length);
+            int last = first + (1 << (TABLE_BITS - length));
+            for (int i = first; i < last; i++) {
+                single[i] = (symbol << 8) | length;
+            }
+        }
+        int mask = (1 << TABLE_BITS) - 1;
+        for (int i = 0; i < entries.length; i++) {
+            long entry = 0;
+            int count = 0, consumed = 0;
+            while (count < MAX_SYMBOLS) {
+                int next = single[(i << consumed) & mask];
+                int length = next & 0xFF;
+                if (length == 0 || length > TABLE_BITS - consumed) {
+                    break;
+                }
+                entry |= (long) (next >>> 8) << (16 * count);
+                consumed += length;
+                count++;
+            }
+            entries[i] = entry | (long) count << COUNT_SHIFT | (long) consumed << BITS_SHIFT;
+        }
+    }
+
+    /**
+     * Decodes count symbols from the given reader into dst.
+     * @param reader Source of the bitstring
+     * @param dst Destination of the decoded characters
+     * @param offset Index in dst of the first character to write
+     * @param count Number of characters to decode
+     * @throws IllegalArgumentException if the bitstring contains an
+     *         unassigned code
+     */
+    void decode (BitReader reader, char[] dst, int offset, int count) {
+        int i = offset, end = offset + count;
+        // Only whole entries are used, so each must fit the remaining count
+        while (end - i >= MAX_SYMBOLS) {
+            reader.refill();
+            long entry = entries[reader.peek(TABLE_BITS)];
+            int symbols = (int) (entry >>> COUNT_SHIFT) & 0xF;
+            if (symbols == 0) {
+                dst[i++] = (char) fallback.next(reader);
+                continue;
+            }
+            // Slots past the entry's count are overwritten by what follows
+            dst[i] = (char) entry;
+            dst[i + 1] = (char) (entry >>> 16);
+            dst[i + 2] = (char) (entry >>> 32);
+            reader.skip((int) (entry >>> BITS_SHIFT));
+            i += symbols;
+        }
+        while (i < end) {
+            dst[i++] = (char) fallback.next(reader);
+        }
+    }
+
+}
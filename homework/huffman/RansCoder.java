@@ -0,0 +1,219 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * RansCoder instances compress text with a static range asymmetric numeral
+ * system (rANS) over the character distribution of a training corpus. Each
+ * character is given a frequency out of 2^scaleBits proportional to its
+ * count, and costs -log2(frequency / 2^scaleBits) bits rather than a whole
+ * number of bits as with Huffman codes, which wins most on skewed
+ * distributions. Decoding is a table lookup and a multiply per character.
+ * <p>
+ * The coder state is a 32-bit integer kept in [2^23, 2^31) and renormalized
+ * a byte at a time. A corpus of a single character gives it half of the
+ * slots rather than all of them, so that every character costs at least a
+ * bit and the message length stays bounded by the compressed size.
+ * Characters are encoded in reverse so that they decode forwards. Instances
+ * are immutable and safe to share between threads.
+ */
+public class RansCoder implements EntropyCoder {
+
+    /**
+     * Lower bound of the normalized coder state.
+     */
+    private static final int LOWER = 1 << 23;
+
+    /**
+     * Fewest and most bits of frequency resolution.
+     */
+    static final int MIN_SCALE_BITS = 12, MAX_SCALE_BITS = 16;
+
+    private final int scaleBits;
+    private final int[] frequencies;
+    private final int[] starts;
+    private final char[] slots;
+    private final int maxFrequency;
+
+    /**
+     * Creates the rANS model of the character distribution of the corpus.
+     * @param corpus Text with a distribution comparable to later messages
+     */
+    RansCoder (String corpus) {
+        this(Histogram.of(corpus));
+    }
+
+    /**
+     * Creates the rANS model of a precomputed histogram, as in
+     * RansCoder(String).
+     * @param histogram Character counts of the corpus
+     */
+    RansCoder (Histogram histogram) {
+        int distinct = histogram.distinct();
+        // At least 4 slots per character on average keeps the rounding loss small
+        int bits = MIN_SCALE_BITS;
+        while (bits < MAX_SCALE_BITS && distinct << 2 > 1 << bits) {
+            bits++;
+        }
+        scaleBits = bits;
+        int maxCharacter = -1;
+        for (int i = 0; i < distinct; i++) {
+            maxCharacter = Math.max(maxCharacter, histogram.symbol(i));
+        }
+        frequencies = normalize(histogram, maxCharacter + 1, 1 << scaleBits);
+        if (distinct == 1) {
+            frequencies[maxCharacter] >>>= 1;
+        }
+        starts = new int[frequencies.length];
+        slots = new char[1 << scaleBits];
+        int start = 0, max = 0;
+        for (int c = 0; c < frequencies.length; c++) {
+            starts[c] = start;
+            Arrays.fill(slots, start, start + frequencies[c], (char) c);
+            start += frequencies[c];
+            max = Math.max(max, frequencies[c]);
+        }
+        maxFrequency = max;
+    }
+
+    /**
+     * Scales the histogram's counts to frequencies summing to total, giving
+     * every counted character at least 1.
+     * @return Frequencies indexed by character
+     */
+    private static int[] normalize (Histogram histogram, int size, int total) {
+        int[] frequencies = new int[size];
+        long count = histogram.total();
+        if (count == 0) {
+            return frequencies;
+        }
+        int sum = 0;
+        char largest = histogram.symbol(0);
+        for (int i = 0; i < histogram.distinct(); i++) {
+            char c = histogram.symbol(i);
+            frequencies[c] = (int) Math.max(1, histogram.count(c) * (long) total / count);
+            sum += frequencies[c];
+            if (frequencies[c] > frequencies[largest]) {
+                largest = c;
+            }
+        }
+        if (sum <= total) {
+            frequencies[largest] += total - sum;
+            return frequencies;
+        }
+        // Characters raised to 1 overshoot: take the excess from the others,
+        // most frequent first
+        char[] byFrequency = new char[histogram.distinct()];
+        for (int i = 0; i < byFrequency.length; i++) {
+            byFrequency[i] = histogram.symbol(i);
+        }
+        Integer[] order = new Integer[byFrequency.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> frequencies[byFrequency[b]] - frequencies[byFrequency[a]]);
+        while (sum > total) {
+            for (int i = 0; i < order.length && sum > total; i++) {
+                char c = byFrequency[order[i]];
+                if (frequencies[c] > 1) {
+                    frequencies[c]--;
+                    sum--;
+                }
+            }
+        }
+        return frequencies;
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given message.
+     * @param message String representing the message to compress
+     * @return {@code byte[]} formatted as 3 components: (1) the number of
+     *         characters in the message as a varint, (2) the final coder
+     *         state as 4 big-endian bytes, (3) the renormalization bytes in
+     *         the order the decoder reads them
+     * @throws IllegalArgumentException if the message contains a character
+     *         that did not appear in the corpus
+     */
+    public byte[] compress (String message) {
+        // Each character emits at most 2 bytes: scaleBits <= 16
+        byte[] buffer = new byte[4 + 2 * message.length()];
+        int position = buffer.length;
+        int state = LOWER;
+        for (int i = message.length() - 1; i >= 0; i--) {
+            char c = message.charAt(i);
+            int frequency = c < frequencies.length ? frequencies[c] : 0;
+            if (frequency == 0) {
+                throw new IllegalArgumentException("Character '" + c + "' does not appear in the corpus");
+            }
+            long max = (long) ((LOWER >>> scaleBits) << 8) * frequency;
+            while (state >= max) {
+                buffer[--position] = (byte) state;
+                state >>>= 8;
+            }
+            state = ((state / frequency) << scaleBits) + (state % frequency) + starts[c];
+        }
+        for (int i = 0; i < 4; i++) {
+            buffer[--position] = (byte) state;
+            state >>>= 8;
+        }
+        int headerSize = Varint.size(message.length());
+        byte[] answer = new byte[headerSize + buffer.length - position];
+        Varint.write(message.length(), answer, 0);
+        System.arraycopy(buffer, position, answer, headerSize, buffer.length - position);
+        return answer;
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses a message written by compress.
+     * @param compressedMsg {@code byte[]} formatted as described in compress
+     * @return Decompressed String representation of the message
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    public String decompress (byte[] compressedMsg) {
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        long length = Varint.read(src);
+        // Every character costs at least -log2(maxFrequency / 2^scaleBits)
+        // bits, which is positive: no frequency reaches 2^scaleBits
+        double minBits = maxFrequency > 0 ? scaleBits - Math.log(maxFrequency) / Math.log(2) : 0;
+        if (src.remaining() < 4 || length > Integer.MAX_VALUE - 8 || (length > 0 && maxFrequency == 0)
+                || length * minBits > 8.0 * src.remaining() + 1) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        int position = src.position();
+        int state = 0;
+        for (int i = 0; i < 4; i++) {
+            state = (state << 8) | (compressedMsg[position++] & 0xFF);
+        }
+        char[] answer = new char[(int) length];
+        int mask = (1 << scaleBits) - 1;
+        for (int i = 0; i < answer.length; i++) {
+            if (state < LOWER) {
+                throw new IllegalArgumentException("Malformed rANS state");
+            }
+            char c = slots[state & mask];
+            if ((state & mask) - starts[c] >= frequencies[c]) {
+                // A slot left over by a single-character corpus
+                throw new IllegalArgumentException("Malformed rANS state");
+            }
+            answer[i] = c;
+            state = frequencies[c] * (state >>> scaleBits) + (state & mask) - starts[c];
+            while (state < LOWER && position < compressedMsg.length) {
+                state = (state << 8) | (compressedMsg[position++] & 0xFF);
+            }
+        }
+        if (state != LOWER || position != compressedMsg.length) {
+            throw new IllegalArgumentException("Malformed rANS state");
+        }
+        return new String(answer);
+    }
+
+}
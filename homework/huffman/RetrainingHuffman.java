@@ -0,0 +1,324 @@
+package huffman;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RetrainingHuffman instances compress a long-lived stream of messages with
+ * Huffman codes that follow the stream's distribution. One message in every
+ * sampleRate is counted into a rolling histogram, whose counts are halved
+ * after every rebuild so that old text fades. Every retrainInterval sampled
+ * characters, the histogram is snapshotted and a candidate codec built from
+ * the snapshot on the given executor, leaving the compressing threads only
+ * the counting; the candidate is swapped in atomically when it codes the
+ * snapshot at least minGain bits per character shorter than the current
+ * codec. Codecs have an escape code, so characters the current
+ * codec was not trained on are still compressed, if expensively, until a
+ * rebuild gives them codes of their own.
+ * <p>
+ * Each payload is tagged with the version of the codec that compressed it,
+ * and every version is kept until it is explicitly evicted, so payloads
+ * compressed before any number of swaps still decompress. Codecs are
+ * canonical: header(version) describes one in a few bytes that can be
+ * persisted alongside the payloads and handed back to register after a
+ * restart. Instances are safe to share between threads.
+ */
+public final class RetrainingHuffman {
+
+    static final int DEFAULT_SAMPLE_RATE = 8;
+    static final int DEFAULT_RETRAIN_INTERVAL = 1 << 16;
+    static final double DEFAULT_MIN_GAIN = 0.05;
+
+    private final int sampleRate;
+    private final int retrainInterval;
+    private final double minGain;
+    private final Executor executor;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final Histogram rolling;
+    private long sampled;
+    private boolean rebuilding;
+
+    private final AtomicReference<Version> current;
+    private final Map<Integer, Huffman> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a RetrainingHuffman instance starting from codes for the given
+     * seed corpus, rebuilding on the common ForkJoinPool.
+     * @param seedCorpus Text with a distribution comparable to the first
+     *        messages; it also seeds the rolling histogram
+     */
+    RetrainingHuffman (String seedCorpus) {
+        this(seedCorpus, DEFAULT_SAMPLE_RATE, DEFAULT_RETRAIN_INTERVAL, DEFAULT_MIN_GAIN, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a RetrainingHuffman instance starting from codes for the given
+     * seed corpus.
+     * @param seedCorpus Text with a distribution comparable to the first
+     *        messages; it also seeds the rolling histogram
+     * @param sampleRate One message in every sampleRate is counted
+     * @param retrainInterval Number of sampled characters between rebuilds
+     * @param minGain Fewest bits per character a rebuilt codec must save to
+     *        be swapped in
+     * @param executor Runs the rebuilds
+     * @throws IllegalArgumentException if sampleRate or retrainInterval is
+     *         not positive
+     */
+    RetrainingHuffman (String seedCorpus, int sampleRate, int retrainInterval, double minGain, Executor executor) {
+        if (sampleRate < 1 || retrainInterval < 1) {
+            throw new IllegalArgumentException("Sample rate and retrain interval must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.retrainInterval = retrainInterval;
+        this.minGain = minGain;
+        this.executor = executor;
+        this.rolling = Histogram.of(seedCorpus);
+        Huffman seed = new Huffman(rolling, true).canonical();
+        versions.put(0, seed);
+        current = new AtomicReference<>(new Version(0, seed));
+    }
+
+    /**
+     * @return Version of the codec currently used by compress
+     */
+    public int version () {
+        return current.get().number;
+    }
+
+    /**
+     * @param version A codec version
+     * @return The codec of the given version, or null if it is not retained
+     */
+    Huffman codec (int version) {
+        return versions.get(version);
+    }
+
+    /**
+     * Describes the codec of the given version, e.g., to persist it next to
+     * the payloads it compressed; see register.
+     * @param version A retained codec version
+     * @return {@code byte[]} header, as written by Huffman.header
+     * @throws IllegalArgumentException if the version is not retained
+     */
+    public byte[] header (int version) {
+        Huffman codec = versions.get(version);
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec version " + version + " is not retained");
+        }
+        return codec.header();
+    }
+
+    /**
+     * Retains the codec described by a persisted header under its version,
+     * so that payloads it compressed decompress again, e.g., after a
+     * restart. A version newer than the current one also becomes the
+     * current one, which keeps later rebuilds from reusing its number.
+     * @param version Version the header was persisted under
+     * @param header {@code byte[]} written by header(version)
+     * @throws IllegalArgumentException if the version is negative, the
+     *         header is malformed, or a different codec is already retained
+     *         under the version
+     */
+    public void register (int version, byte[] header) {
+        if (version < 0) {
+            throw new IllegalArgumentException("Codec versions are not negative");
+        }
+        Huffman codec = Huffman.fromHeader(header);
+        synchronized (versions) {
+            Huffman retained = versions.putIfAbsent(version, codec);
+            if (retained != null) {
+                if (!Arrays.equals(retained.header(), header)) {
+                    throw new IllegalArgumentException("Codec version " + version + " is already retained with other codes");
+                }
+                return;
+            }
+            if (version > current.get().number) {
+                current.set(new Version(version, codec));
+            }
+        }
+    }
+
+    /**
+     * Stops retaining the codec of the given version, after which payloads
+     * it compressed no longer decompress.
+     * @param version A codec version other than the current one
+     * @return true if the version was retained
+     * @throws IllegalArgumentException if version is the current version
+     */
+    public boolean evict (int version) {
+        synchronized (versions) {
+            if (version == current.get().number) {
+                throw new IllegalArgumentException("The current codec version cannot be evicted");
+            }
+            return versions.remove(version) != null;
+        }
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given message with the current codec, sampling it for
+     * retraining.
+     * @param message String representing the message to compress
+     * @return {@code byte[]} formatted as 4 components: (1) the codec version
+     *         as a varint, (2) the number of characters in the message as a
+     *         varint, (3) the bitstring containing the message itself,
+     *         (4) possible 0-padding on the final byte
+     */
+    public byte[] compress (String message) {
+        Version version = current.get();
+        long bits = version.codec.encodedBits(message);
+        int headerSize = Varint.size(version.number) + Varint.size(message.length());
+        long size = headerSize + ((bits + 7) >>> 3);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Compressed message would exceed the maximum array size");
+        }
+        byte[] answer = new byte[(int) size];
+        Varint.write(message.length(), answer, Varint.write(version.number, answer, 0));
+        version.codec.encode(message, answer, headerSize);
+        if (messages.getAndIncrement() % sampleRate == 0) {
+            sample(message);
+        }
+        return answer;
+    }
+
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+
+    /**
+     * Decompresses a payload written by compress, with the codec of the
+     * version it is tagged with.
+     * @param compressedMsg {@code byte[]} formatted as described in compress
+     * @return Decompressed String representation of the message
+     * @throws IllegalArgumentException if the input is malformed or its codec
+     *         version is not retained
+     */
+    public String decompress (byte[] compressedMsg) {
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        long number, length;
+        try {
+            number = Varint.read(src);
+            length = Varint.read(src);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Compressed message is truncated");
+        }
+        Huffman codec = number <= Integer.MAX_VALUE ? versions.get((int) number) : null;
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec version " + number + " is not retained");
+        }
+        // Every code is at least 1 bit long, bounding the honest lengths
+        if (length > 8L * src.remaining() || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Message length exceeds the compressed bitstring");
+        }
+        char[] answer = new char[(int) length];
+        codec.decode(compressedMsg, src.position(), compressedMsg.length, answer, 0, answer.length);
+        return new String(answer);
+    }
+
+    // -----------------------------------------------
+    // Retraining
+    // -----------------------------------------------
+
+    /**
+     * Counts a message into the rolling histogram, handing a rebuild to the
+     * executor once retrainInterval characters have been sampled and no
+     * rebuild is already running. The rebuild snapshots the histogram on
+     * the executor, so the compressing thread never copies or decays it.
+     */
+    private void sample (String message) {
+        synchronized (rolling) {
+            rolling.add(message, 0, message.length());
+            sampled += message.length();
+            if (sampled < retrainInterval || rebuilding) {
+                return;
+            }
+            sampled = 0;
+            rebuilding = true;
+        }
+        try {
+            executor.execute(this::rebuild);
+        } catch (RejectedExecutionException e) {
+            // Skip this rebuild; the next interval tries again
+            synchronized (rolling) {
+                rebuilding = false;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds from the rolling histogram right away on the calling thread,
+     * regardless of how much has been sampled since the last rebuild.
+     * @return true if the rebuilt codec was swapped in
+     */
+    public boolean retrain () {
+        synchronized (rolling) {
+            if (rebuilding) {
+                return false;
+            }
+            sampled = 0;
+            rebuilding = true;
+        }
+        return rebuild();
+    }
+
+    /**
+     * Copies the rolling histogram and then decays it, builds a codec from
+     * the copy, and swaps it in if it codes the copy at least minGain bits
+     * per character shorter than the current codec. The caller has set
+     * rebuilding, which is cleared once the rebuild is done.
+     * @return true if the codec was swapped in
+     */
+    private boolean rebuild () {
+        try {
+            Histogram snapshot;
+            synchronized (rolling) {
+                snapshot = rolling.copy();
+                rolling.decay();
+            }
+            Huffman candidate = new Huffman(snapshot, true).canonical();
+            long oldBits = current.get().codec.encodedBits(snapshot);
+            long newBits = candidate.encodedBits(snapshot);
+            if (oldBits - newBits < minGain * snapshot.total()) {
+                return false;
+            }
+            synchronized (versions) {
+                int number = current.get().number + 1;
+                versions.put(number, candidate);
+                current.set(new Version(number, candidate));
+            }
+            return true;
+        } finally {
+            synchronized (rolling) {
+                rebuilding = false;
+            }
+        }
+    }
+
+    /**
+     * A codec together with the version it is tagged with.
+     */
+    private static final class Version {
+
+        final int number;
+        final Huffman codec;
+
+        Version (int number, Huffman codec) {
+            this.number = number;
+            this.codec = codec;
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128-style variable-length encoding of non-negative 64-bit integers: 7
+ * bits per byte, least significant group first, with the high bit of each
+ * byte set when more bytes follow. Values below 128 take a single byte.
+ * Readers reject encodings of values that would be negative as a long, so
+ * callers bounding a decoded length from above need no check from below.
+ */
+final class Varint {
+
+    /**
+     * Most bytes a 64-bit value can occupy.
+     */
+    static final int MAX_SIZE = 10;
+
+    /**
+     * Shift of the last byte's group, which may only hold bits of
+     * Long.MAX_VALUE, i.e., none.
+     */
+    private static final int LAST_SHIFT = 7 * (MAX_SIZE - 1);
+
+    private Varint () {}
+
+    /**
+     * @param value Non-negative value to measure
+     * @return Number of bytes write will use for value
+     */
+    static int size (long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes value into dst starting at offset.
+     * @param value Non-negative value to write
+     * @param dst Destination array with at least size(value) bytes free
+     * @param offset Index of the first byte to write
+     * @return Index one past the last byte written
+     */
+    static int write (long value, byte[] dst, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            dst[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Writes value at the buffer's position, advancing it.
+     * @param value Non-negative value to write
+     * @param dst Destination buffer
+     */
+    static void write (long value, ByteBuffer dst) {
+        while ((value & ~0x7FL) != 0) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    /**
+     * Reads a value from the buffer's position, advancing it.
+     * @param src Source buffer
+     * @return The non-negative value read
+     * @throws IllegalArgumentException if the encoding runs past MAX_SIZE
+     *         bytes or its value exceeds Long.MAX_VALUE
+     */
+    static long read (ByteBuffer src) {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_SIZE; shift += 7) {
+            byte b = src.get();
+            if (shift == LAST_SHIFT && b != 0) {
+                break;
+            }
+            value |= (b & 0x7FL) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads a value from the given stream.
+     * @param in Source stream
+     * @return The non-negative value read
+     * @throws EOFException if the stream ends inside the value
+     * @throws IOException if the stream fails, the encoding runs past
+     *         MAX_SIZE bytes or its value exceeds Long.MAX_VALUE
+     */
+    static long read (InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_SIZE; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Stream ended inside a varint");
+            }
+            if (shift == LAST_SHIFT && b != 0) {
+                break;
+            }
+            value |= (b & 0x7FL) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+}